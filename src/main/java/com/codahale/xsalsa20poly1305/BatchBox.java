@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.Arrays;
+import java.util.Optional;
+import org.bouncycastle.util.Pack;
+
+/**
+ * Encryption of batches of small records, each of which can be decrypted independently.
+ *
+ * <p>A batch consists of a random 24-byte base nonce, the sealed records, an index of the end
+ * offset of each sealed record, the number of records, and a 16-byte MAC of the number of records.
+ * Each record is sealed with a nonce derived from the base nonce and the record's index, so a
+ * record costs 20 bytes of overhead (a 16-byte MAC and a 4-byte offset) instead of the 40 bytes of
+ * a {@link SimpleBox} ciphertext.
+ *
+ * <p>Each record is authenticated individually, so a record can't be modified or moved to a
+ * different index without detection. The record count is authenticated with an empty message sealed
+ * under a nonce derived from the count, so records removed from the end of a batch are detected. A
+ * batch returned by an earlier {@link BatchWriter#toByteArray()} call on the same writer remains
+ * valid, however. The index is not authenticated, but a modified index only causes records to fail
+ * to open.
+ */
+public class BatchBox {
+
+  private static final int INT_SIZE = 4;
+  private static final int TRAILER_SIZE = INT_SIZE + SecretBox.MAC_SIZE;
+
+  private final SecretBox box;
+
+  /**
+   * Create a new {@link BatchBox} instance with the given secret key.
+   *
+   * @param secretKey a 32-byte secret key
+   */
+  public BatchBox(byte[] secretKey) {
+    this.box = new SecretBox(secretKey);
+  }
+
+  /**
+   * Create a new {@link BatchBox} instance given a Curve25519 public key and a Curve25519 private
+   * key.
+   *
+   * @param publicKey a Curve25519 public key
+   * @param privateKey a Curve25519 private key
+   */
+  public BatchBox(byte[] publicKey, byte[] privateKey) {
+    this.box = new SecretBox(publicKey, privateKey);
+  }
+
+  /**
+   * Starts a new batch with a random base nonce.
+   *
+   * @return a {@link BatchWriter} for the new batch
+   */
+  public BatchWriter writer() {
+    return new BatchWriter(box, box.nonce());
+  }
+
+  /**
+   * Returns the number of records in the given batch.
+   *
+   * @param batch an encrypted batch
+   * @return the number of records in {@code batch}, or {@code -1} if {@code batch} is malformed or
+   *     its record count was modified
+   */
+  public int count(byte[] batch) {
+    if (batch.length < SecretBox.NONCE_SIZE + TRAILER_SIZE) {
+      return -1;
+    }
+    final int countOff = batch.length - TRAILER_SIZE;
+    final int count = Pack.bigEndianToInt(batch, countOff);
+    if (count < 0 || count > (countOff - SecretBox.NONCE_SIZE) / INT_SIZE) {
+      return -1;
+    }
+    final int macOff = countOff + INT_SIZE;
+    if (!box.open(countNonce(batch, count), batch, macOff, SecretBox.MAC_SIZE).isPresent()) {
+      return -1;
+    }
+    return count;
+  }
+
+  /**
+   * Decrypt a single record of the given batch.
+   *
+   * @param batch an encrypted batch
+   * @param index the index of the record to decrypt
+   * @return an {@link Optional} of the original record, or if either the key or batch was modified
+   *     or {@code index} is out of range, an empty {@link Optional}
+   */
+  public Optional<byte[]> open(byte[] batch, int index) {
+    final int count = count(batch);
+    if (index < 0 || index >= count) {
+      return Optional.empty();
+    }
+
+    final int indexStart = batch.length - TRAILER_SIZE - count * INT_SIZE;
+    final int start =
+        index == 0 ? 0 : Pack.bigEndianToInt(batch, indexStart + (index - 1) * INT_SIZE);
+    final int end = Pack.bigEndianToInt(batch, indexStart + index * INT_SIZE);
+    if (start < 0 || end < start || end > indexStart - SecretBox.NONCE_SIZE) {
+      return Optional.empty();
+    }
+
+    return box.open(nonce(batch, index), batch, SecretBox.NONCE_SIZE + start, end - start);
+  }
+
+  // Derives a record's nonce by XORing its index into the last 8 bytes of the base nonce.
+  static byte[] nonce(byte[] base, int index) {
+    final byte[] nonce = Arrays.copyOf(base, SecretBox.NONCE_SIZE);
+    final int off = SecretBox.NONCE_SIZE - Long.BYTES;
+    Pack.longToBigEndian(Pack.bigEndianToLong(nonce, off) ^ index, nonce, off);
+    return nonce;
+  }
+
+  // Derives the nonce which authenticates a record count. Its index is negative, so it never
+  // collides with a record's nonce, and it differs for each count, so resealing a growing batch
+  // never reuses a nonce.
+  static byte[] countNonce(byte[] base, int count) {
+    return nonce(base, ~count);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.Arrays;
+import org.bouncycastle.util.Pack;
+
+/**
+ * An open batch of records, to which records can be appended incrementally.
+ *
+ * <p>Writers are not thread-safe.
+ *
+ * @see BatchBox#writer()
+ */
+public class BatchWriter {
+
+  private final SecretBox box;
+  private final byte[] nonce;
+  private byte[] records = new byte[256];
+  private int length;
+  private int[] offsets = new int[16];
+  private int count;
+
+  BatchWriter(SecretBox box, byte[] nonce) {
+    this.box = box;
+    this.nonce = nonce;
+  }
+
+  /**
+   * Encrypts a record and appends it to the batch.
+   *
+   * @param record any arbitrary bytes
+   * @return the index of the record in the batch
+   */
+  public int append(byte[] record) {
+    final byte[] ciphertext = box.seal(BatchBox.nonce(nonce, count), record);
+    if (length + ciphertext.length > records.length) {
+      records = Arrays.copyOf(records, Math.max(records.length * 2, length + ciphertext.length));
+    }
+    System.arraycopy(ciphertext, 0, records, length, ciphertext.length);
+    length += ciphertext.length;
+
+    if (count == offsets.length) {
+      offsets = Arrays.copyOf(offsets, count * 2);
+    }
+    offsets[count] = length;
+    return count++;
+  }
+
+  /**
+   * Returns the number of records in the batch.
+   *
+   * @return the number of records
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Returns the encrypted batch of all records appended so far. More records may be appended
+   * afterwards.
+   *
+   * @return the encrypted batch
+   */
+  public byte[] toByteArray() {
+    final byte[] out =
+        new byte[nonce.length + length + (count + 1) * Integer.BYTES + SecretBox.MAC_SIZE];
+    System.arraycopy(nonce, 0, out, 0, nonce.length);
+    System.arraycopy(records, 0, out, nonce.length, length);
+    int off = nonce.length + length;
+    for (int i = 0; i < count; i++, off += Integer.BYTES) {
+      Pack.intToBigEndian(offsets[i], out, off);
+    }
+    Pack.intToBigEndian(count, out, off);
+
+    // authenticate the count with the mac of an empty message
+    final byte[] mac = box.seal(BatchBox.countNonce(nonce, count), new byte[0]);
+    System.arraycopy(mac, 0, out, off + Integer.BYTES, mac.length);
+    return out;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of reusable output buffers for {@link SecretBox}.
+ *
+ * <p>Buffers are grouped into power-of-two size classes, starting at 64 bytes. Released buffers are
+ * wiped and kept in a small per-thread cache, overflowing into a bounded shared queue. Requests
+ * larger than the maximum pooled size are satisfied with unpooled buffers.
+ *
+ * <p>The buffers held by a pool, across all threads' caches and the shared queues, never total more
+ * than its {@code maxRetainedBytes}; released buffers beyond that are dropped. Per-thread caches
+ * are held in a {@link ThreadLocal}, so a discarded pool's cached buffers stay reachable from
+ * long-lived threads (e.g. executor workers) until those threads exit, but never exceed that
+ * ceiling.
+ *
+ * @see SecretBox#seal(byte[], byte[], BufferPool)
+ * @see SecretBox#open(byte[], byte[], BufferPool)
+ */
+public class BufferPool {
+
+  private static final int MIN_SIZE_CLASS = 6;
+
+  private final int maxSizeClass;
+  private final int buffersPerThread;
+  private final int sharedBuffers;
+  private final long maxRetainedBytes;
+  private final AtomicLong retained = new AtomicLong();
+  private final List<Queue<byte[]>> shared;
+  private final ThreadLocal<List<ArrayDeque<byte[]>>> cache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Create a new {@link BufferPool} which pools buffers of up to 1MiB, caching up to 4 buffers of
+   * each size per thread and sharing up to 16 of each size, and retains at most 16MiB.
+   */
+  public BufferPool() {
+    this(1024 * 1024, 4, 16, 16 * 1024 * 1024);
+  }
+
+  /**
+   * Create a new {@link BufferPool}.
+   *
+   * @param maxBufferSize the size of the largest buffer to pool
+   * @param buffersPerThread the number of buffers of each size class to cache per thread
+   * @param sharedBuffers the number of buffers of each size class to share between threads
+   * @param maxRetainedBytes the maximum total size of the buffers held by the pool
+   */
+  public BufferPool(
+      int maxBufferSize, int buffersPerThread, int sharedBuffers, long maxRetainedBytes) {
+    if (maxBufferSize < 1 << MIN_SIZE_CLASS || maxBufferSize > 1 << 30) {
+      throw new IllegalArgumentException("maxBufferSize must be between 64 bytes and 1GiB");
+    }
+    if (buffersPerThread < 0 || sharedBuffers < 0 || maxRetainedBytes < 0) {
+      throw new IllegalArgumentException("buffer limits must not be negative");
+    }
+    this.maxSizeClass = sizeClass(maxBufferSize);
+    this.buffersPerThread = buffersPerThread;
+    this.sharedBuffers = sharedBuffers;
+    this.maxRetainedBytes = maxRetainedBytes;
+    final int classes = maxSizeClass - MIN_SIZE_CLASS + 1;
+    this.shared = new ArrayList<>(classes);
+    for (int i = 0; sharedBuffers > 0 && i < classes; i++) {
+      shared.add(new ArrayBlockingQueue<>(sharedBuffers));
+    }
+    this.cache =
+        ThreadLocal.withInitial(
+            () -> {
+              final List<ArrayDeque<byte[]>> deques = new ArrayList<>(classes);
+              for (int i = 0; i < classes; i++) {
+                deques.add(new ArrayDeque<>(buffersPerThread));
+              }
+              return deques;
+            });
+  }
+
+  /**
+   * Acquires a buffer of at least the given length.
+   *
+   * @param length the number of bytes required
+   * @return a {@link PooledBuffer}, which must be closed after use
+   */
+  public PooledBuffer acquire(int length) {
+    final int sizeClass = sizeClass(length);
+    if (sizeClass > maxSizeClass) {
+      misses.increment();
+      return new PooledBuffer(this, new byte[length], length);
+    }
+
+    final int i = sizeClass - MIN_SIZE_CLASS;
+    byte[] buf = cache.get().get(i).pollFirst();
+    if (buf == null && sharedBuffers > 0) {
+      buf = shared.get(i).poll();
+    }
+    if (buf == null) {
+      misses.increment();
+      buf = new byte[1 << sizeClass];
+    } else {
+      retained.addAndGet(-buf.length);
+      hits.increment();
+    }
+    return new PooledBuffer(this, buf, length);
+  }
+
+  /**
+   * Returns the number of acquisitions satisfied with a pooled buffer.
+   *
+   * @return the number of hits
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of acquisitions which required a new buffer.
+   *
+   * @return the number of misses
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the fraction of acquisitions satisfied with a pooled buffer.
+   *
+   * @return the hit rate, or {@code 0} if no buffers have been acquired
+   */
+  public double hitRate() {
+    final long h = hits.sum();
+    final long total = h + misses.sum();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  /**
+   * Returns the total size of the buffers currently held by the pool.
+   *
+   * @return the number of bytes retained
+   */
+  public long retainedBytes() {
+    return retained.get();
+  }
+
+  void release(byte[] buf) {
+    // callers may have written past their requested length
+    Arrays.fill(buf, (byte) 0);
+
+    final int sizeClass = sizeClass(buf.length);
+    if (sizeClass > maxSizeClass || buf.length != 1 << sizeClass) {
+      return;
+    }
+
+    // reserve room under the ceiling, giving it back if the buffer isn't kept
+    if (retained.addAndGet(buf.length) > maxRetainedBytes) {
+      retained.addAndGet(-buf.length);
+      return;
+    }
+
+    final int i = sizeClass - MIN_SIZE_CLASS;
+    final ArrayDeque<byte[]> local = cache.get().get(i);
+    if (local.size() < buffersPerThread) {
+      local.addFirst(buf);
+    } else if (sharedBuffers == 0 || !shared.get(i).offer(buf)) {
+      retained.addAndGet(-buf.length);
+    }
+  }
+
+  private static int sizeClass(int length) {
+    if (length <= 1 << MIN_SIZE_CLASS) {
+      return MIN_SIZE_CLASS;
+    }
+    return 32 - Integer.numberOfLeadingZeros(length - 1);
+  }
+}
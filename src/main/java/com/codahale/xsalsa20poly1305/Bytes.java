@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.security.MessageDigest;
+import org.bouncycastle.util.Pack;
+
+/**
+ * Byte array primitives for HSalsa20, MAC comparison, nonce hashing, and precomputed keystream.
+ *
+ * <p>XSalsa20 and Poly1305 themselves come from Bouncy Castle, so the cipher's own keystream XOR
+ * can't be versioned here.
+ *
+ * <p>This is the Java 8 implementation. Java 9+ runtimes load the version in {@code
+ * META-INF/versions/9}, which uses {@code VarHandle} views to work a word at a time.
+ */
+class Bytes {
+
+  private Bytes() {
+    // singleton
+  }
+
+  static int getIntLE(byte[] b, int off) {
+    return Pack.littleEndianToInt(b, off);
+  }
+
+  static void putIntLE(byte[] b, int off, int v) {
+    Pack.intToLittleEndian(v, b, off);
+  }
+
+  static long getLongLE(byte[] b, int off) {
+    return Pack.littleEndianToLong(b, off);
+  }
+
+  /** Compares two arrays in constant time. */
+  static boolean isEqual(byte[] a, byte[] b) {
+    return MessageDigest.isEqual(a, b);
+  }
+
+  /** XORs {@code len} bytes of {@code in} with {@code keystream} into {@code out}. */
+  static void xor(
+      byte[] in, int inOff, byte[] keystream, int ksOff, byte[] out, int outOff, int len) {
+    for (int i = 0; i < len; i++) {
+      out[outOff + i] = (byte) (in[inOff + i] ^ keystream[ksOff + i]);
+    }
+  }
+}
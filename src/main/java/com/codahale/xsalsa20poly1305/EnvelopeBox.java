@@ -0,0 +1,339 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Envelope encryption, in which messages are encrypted with data keys which are themselves
+ * encrypted with a master key.
+ *
+ * <p>An envelope consists of the wrapped data key (a 24-byte nonce and the 48-byte encrypted key),
+ * a random 24-byte nonce, and the message encrypted with the data key. A data key is used for a
+ * bounded number of messages and bytes before a new one is generated.
+ *
+ * <p>Unwrapped data keys are cached, so opening envelopes which share a data key only decrypts the
+ * data key once. Cached keys are evicted in the order they were unwrapped once the cache is full or
+ * they are older than the cache's TTL, and are wiped once no longer in use. Expired keys are swept
+ * from the cache on every open.
+ *
+ * <p>Closing the box wipes the current data key and every cached key once no longer in use.
+ */
+public class EnvelopeBox implements AutoCloseable {
+
+  private static final int WRAPPED_KEY_SIZE =
+      SecretBox.NONCE_SIZE + Keys.KEY_LEN + SecretBox.MAC_SIZE;
+
+  private final SecretBox master;
+  private final int cacheSize;
+  private final long ttlNanos;
+  private final long maxMessagesPerKey;
+  private final long maxBytesPerKey;
+  private final AtomicReference<DataKey> current = new AtomicReference<>();
+  private final ConcurrentMap<ByteBuffer, CachedKey> cache = new ConcurrentHashMap<>();
+  private final Queue<CachedKey> evictionQueue = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed;
+
+  /**
+   * Create a new {@link EnvelopeBox} instance with the given master key, caching up to 1024 data
+   * keys for up to 5 minutes and using each data key for up to 2^20 messages or 4GiB.
+   *
+   * @param masterKey a 32-byte secret key
+   */
+  public EnvelopeBox(byte[] masterKey) {
+    this(masterKey, 1024, Duration.ofMinutes(5), 1 << 20, 1L << 32);
+  }
+
+  /**
+   * Create a new {@link EnvelopeBox} instance with the given master key.
+   *
+   * @param masterKey a 32-byte secret key
+   * @param cacheSize the maximum number of unwrapped data keys to cache
+   * @param ttl the maximum amount of time an unwrapped data key will be cached
+   * @param maxMessagesPerKey the maximum number of messages to seal with a single data key
+   * @param maxBytesPerKey the maximum number of bytes to seal with a single data key
+   * @throws IllegalArgumentException if {@code ttl} is negative or too large to represent in
+   *     nanoseconds
+   */
+  public EnvelopeBox(
+      byte[] masterKey, int cacheSize, Duration ttl, long maxMessagesPerKey, long maxBytesPerKey) {
+    if (cacheSize < 0) {
+      throw new IllegalArgumentException("cacheSize must not be negative");
+    }
+    if (maxMessagesPerKey < 1 || maxBytesPerKey < 1) {
+      throw new IllegalArgumentException("data key limits must be positive");
+    }
+    if (ttl.isNegative()) {
+      throw new IllegalArgumentException("ttl must not be negative");
+    }
+    try {
+      this.ttlNanos = ttl.toNanos();
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("ttl is too large", e);
+    }
+    this.master = new SecretBox(masterKey);
+    this.cacheSize = cacheSize;
+    this.maxMessagesPerKey = maxMessagesPerKey;
+    this.maxBytesPerKey = maxBytesPerKey;
+  }
+
+  /**
+   * Encrypt the plaintext with the current data key.
+   *
+   * @param plaintext any arbitrary bytes
+   * @return the envelope
+   * @throws IllegalStateException if the box has been closed
+   */
+  public byte[] seal(byte[] plaintext) {
+    checkOpen();
+    final DataKey dataKey = dataKey(plaintext.length);
+    try {
+      final byte[] nonce = dataKey.box.nonce();
+      final byte[] ciphertext = dataKey.box.seal(nonce, plaintext);
+      final byte[] out = new byte[WRAPPED_KEY_SIZE + nonce.length + ciphertext.length];
+      System.arraycopy(dataKey.wrapped, 0, out, 0, WRAPPED_KEY_SIZE);
+      System.arraycopy(nonce, 0, out, WRAPPED_KEY_SIZE, nonce.length);
+      System.arraycopy(ciphertext, 0, out, WRAPPED_KEY_SIZE + nonce.length, ciphertext.length);
+      return out;
+    } finally {
+      dataKey.release();
+    }
+  }
+
+  /**
+   * Decrypt the envelope.
+   *
+   * @param envelope an encrypted envelope
+   * @return an {@link Optional} of the original plaintext, or if either the key, data key, nonce,
+   *     or ciphertext was modified, an empty {@link Optional}
+   * @throws IllegalStateException if the box has been closed
+   */
+  public Optional<byte[]> open(byte[] envelope) {
+    checkOpen();
+    final int headerSize = WRAPPED_KEY_SIZE + SecretBox.NONCE_SIZE;
+    if (envelope.length < headerSize) {
+      return Optional.empty();
+    }
+
+    final CachedKey key = acquire(Arrays.copyOf(envelope, WRAPPED_KEY_SIZE));
+    if (key == null) {
+      return Optional.empty();
+    }
+    try {
+      final byte[] nonce = Arrays.copyOfRange(envelope, WRAPPED_KEY_SIZE, headerSize);
+      final byte[] ciphertext = Arrays.copyOfRange(envelope, headerSize, envelope.length);
+      return key.box.open(nonce, ciphertext);
+    } finally {
+      key.release();
+    }
+  }
+
+  /**
+   * Returns the number of unwrapped data keys in the cache.
+   *
+   * @return the number of cached data keys
+   */
+  public int cachedKeys() {
+    return cache.size();
+  }
+
+  /** Wipes the current data key and all cached data keys once they are no longer in use. */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      final DataKey dataKey = current.getAndSet(null);
+      if (dataKey != null) {
+        dataKey.release();
+      }
+    }
+    evict();
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("box has been closed");
+    }
+  }
+
+  // Returns a retained data key with room for a message of the given length.
+  private DataKey dataKey(int length) {
+    while (true) {
+      final DataKey dataKey = current.get();
+      if (dataKey == null) {
+        rotate(null);
+      } else if (dataKey.retain()) {
+        if (dataKey.reserve(length)) {
+          return dataKey;
+        }
+        dataKey.release();
+        rotate(dataKey);
+      }
+    }
+  }
+
+  // Replaces the given data key, unless another thread already has, so only one new key is made.
+  private synchronized void rotate(DataKey exhausted) {
+    checkOpen();
+    if (current.get() == exhausted) {
+      current.set(newDataKey());
+      if (exhausted != null) {
+        // drop the reference held by current, wiping the key once in-flight seals finish
+        exhausted.release();
+      }
+    }
+  }
+
+  private DataKey newDataKey() {
+    final byte[] key = Keys.generateSecretKey();
+    try {
+      final byte[] nonce = master.nonce(key);
+      final byte[] ciphertext = master.seal(nonce, key);
+      final byte[] wrapped = new byte[WRAPPED_KEY_SIZE];
+      System.arraycopy(nonce, 0, wrapped, 0, nonce.length);
+      System.arraycopy(ciphertext, 0, wrapped, nonce.length, ciphertext.length);
+      return new DataKey(new SecretBox(key), wrapped);
+    } finally {
+      Arrays.fill(key, (byte) 0);
+    }
+  }
+
+  // Returns a retained, unwrapped data key, or null if the wrapped key is invalid.
+  private CachedKey acquire(byte[] wrapped) {
+    final ByteBuffer id = ByteBuffer.wrap(wrapped);
+    evict();
+    while (true) {
+      final CachedKey cached = cache.get(id);
+      if (cached != null && cached.expiresAt - System.nanoTime() <= 0) {
+        if (cache.remove(id, cached)) {
+          cached.release();
+        }
+        continue;
+      }
+
+      if (cached != null) {
+        if (cached.retain()) {
+          return cached;
+        }
+        continue;
+      }
+
+      final Optional<byte[]> key =
+          master.open(
+              Arrays.copyOf(wrapped, SecretBox.NONCE_SIZE),
+              Arrays.copyOfRange(wrapped, SecretBox.NONCE_SIZE, WRAPPED_KEY_SIZE));
+      if (!key.isPresent()) {
+        return null;
+      }
+
+      final CachedKey unwrapped = new CachedKey(id, new SecretBox(key.get()), System.nanoTime());
+      Arrays.fill(key.get(), (byte) 0);
+      unwrapped.retain();
+      if (cacheSize > 0 && cache.putIfAbsent(id, unwrapped) == null) {
+        evictionQueue.add(unwrapped);
+        evict();
+      } else {
+        // the key wasn't cached, so it's only held by this caller
+        unwrapped.release();
+      }
+      return unwrapped;
+    }
+  }
+
+  // Releases keys from the head of the queue which are expired, replaced, or over the cache's size.
+  // Once closed, releases every key, including any a concurrent open adds after close().
+  private void evict() {
+    CachedKey oldest;
+    while ((oldest = evictionQueue.peek()) != null
+        && (closed
+            || cache.size() > cacheSize
+            || oldest.expiresAt - System.nanoTime() <= 0
+            || cache.get(oldest.id) != oldest)) {
+      oldest = evictionQueue.poll();
+      if (oldest != null && cache.remove(oldest.id, oldest)) {
+        oldest.release();
+      }
+    }
+  }
+
+  private class DataKey extends RetainedKey {
+    private final byte[] wrapped;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private DataKey(SecretBox box, byte[] wrapped) {
+      super(box);
+      this.wrapped = wrapped;
+    }
+
+    private boolean reserve(int length) {
+      final long m = messages.incrementAndGet();
+      final long b = bytes.addAndGet(length);
+      // a new key always accepts its first message, however large
+      return m == 1 || (m <= maxMessagesPerKey && b <= maxBytesPerKey);
+    }
+  }
+
+  private class CachedKey extends RetainedKey {
+    private final ByteBuffer id;
+    private final long expiresAt;
+
+    private CachedKey(ByteBuffer id, SecretBox box, long now) {
+      super(box);
+      this.id = id;
+      this.expiresAt = now + ttlNanos;
+    }
+  }
+
+  // A data key which is wiped once the last reference to it is released.
+  private static class RetainedKey {
+    final SecretBox box;
+    // one reference for the owner (current or the cache), plus one for each caller using the key
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private RetainedKey(SecretBox box) {
+      this.box = box;
+    }
+
+    boolean retain() {
+      while (true) {
+        final int n = refs.get();
+        if (n == 0) {
+          return false;
+        }
+        if (refs.compareAndSet(n, n + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        box.wipe();
+      }
+    }
+  }
+}
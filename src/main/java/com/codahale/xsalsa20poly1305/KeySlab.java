@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap storage for a set of secret keys.
+ *
+ * <p>Keys are stored in fixed 32-byte slots of a single direct buffer, so a large number of keys
+ * adds no objects to the heap. A {@link SecretBox} backed by a slot copies the key into a temporary
+ * array for each operation and wipes it afterwards. Closing the slab wipes every slot, after which
+ * boxes backed by it can no longer be used.
+ *
+ * <p>Slabs are thread-safe, but must not be closed while in use.
+ */
+public class KeySlab implements AutoCloseable {
+
+  private final ByteBuffer slab;
+  private final int capacity;
+  private final AtomicInteger size = new AtomicInteger();
+  private volatile boolean closed;
+
+  /**
+   * Create a new {@link KeySlab} instance with room for the given number of keys.
+   *
+   * @param capacity the maximum number of keys
+   */
+  public KeySlab(int capacity) {
+    if (capacity < 0 || capacity > Integer.MAX_VALUE / Keys.KEY_LEN) {
+      throw new IllegalArgumentException(
+          "capacity must be between 0 and " + Integer.MAX_VALUE / Keys.KEY_LEN);
+    }
+    this.slab = ByteBuffer.allocateDirect(capacity * Keys.KEY_LEN);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Adds the given secret key to the slab.
+   *
+   * @param secretKey a 32-byte secret key
+   * @return the key's slot
+   * @throws IllegalStateException if the slab is full or has been closed
+   */
+  public int add(byte[] secretKey) {
+    if (secretKey.length != Keys.KEY_LEN) {
+      throw new IllegalArgumentException("secretKey must be 32 bytes long");
+    }
+    checkOpen();
+    final int slot = size.getAndUpdate(n -> n < capacity ? n + 1 : n);
+    if (slot == capacity) {
+      throw new IllegalStateException("slab is full");
+    }
+    final ByteBuffer b = slab.duplicate();
+    b.position(slot * Keys.KEY_LEN);
+    b.put(secretKey);
+    // the slab may have been wiped before the key was written
+    if (closed) {
+      for (int i = 0; i < Keys.KEY_LEN; i += Long.BYTES) {
+        slab.putLong(slot * Keys.KEY_LEN + i, 0);
+      }
+      checkOpen();
+    }
+    return slot;
+  }
+
+  /**
+   * Adds the shared secret of the given Curve25519 public key and Curve25519 private key to the
+   * slab.
+   *
+   * @param publicKey a Curve25519 public key
+   * @param privateKey a Curve25519 private key
+   * @return the shared secret's slot
+   * @throws IllegalStateException if the slab is full or has been closed
+   */
+  public int add(byte[] publicKey, byte[] privateKey) {
+    final byte[] k = Keys.sharedSecret(publicKey, privateKey);
+    try {
+      return add(k);
+    } finally {
+      Arrays.fill(k, (byte) 0);
+    }
+  }
+
+  /**
+   * Create a new {@link SecretBox} instance which uses the key in the given slot.
+   *
+   * @param slot a slot returned by {@link #add(byte[])} or {@link #add(byte[], byte[])}
+   * @return a {@link SecretBox} backed by the slab
+   * @throws IllegalStateException if the slab has been closed
+   */
+  public SecretBox box(int slot) {
+    checkOpen();
+    if (slot < 0 || slot >= size.get()) {
+      throw new IllegalArgumentException("slot is not in use");
+    }
+    return new SecretBox(this, slot);
+  }
+
+  /**
+   * Returns the number of keys in the slab.
+   *
+   * @return the number of used slots
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Returns the maximum number of keys in the slab.
+   *
+   * @return the number of slots
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /** Wipes all keys in the slab. */
+  @Override
+  public void close() {
+    closed = true;
+    for (int i = 0; i < slab.capacity(); i += Long.BYTES) {
+      slab.putLong(i, 0);
+    }
+  }
+
+  // Returns a copy of the key in the given slot, which the caller must wipe.
+  byte[] get(int slot) {
+    checkOpen();
+    final byte[] k = new byte[Keys.KEY_LEN];
+    final ByteBuffer b = slab.duplicate();
+    b.position(slot * Keys.KEY_LEN);
+    b.get(k);
+    // the slab may have been wiped while copying
+    if (closed) {
+      Arrays.fill(k, (byte) 0);
+      checkOpen();
+    }
+    return k;
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("slab has been closed");
+    }
+  }
+}
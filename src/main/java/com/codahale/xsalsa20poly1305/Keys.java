@@ -16,6 +16,8 @@
 package com.codahale.xsalsa20poly1305;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 import org.bouncycastle.math.ec.rfc7748.X25519;
 
 /** Utility methods for generating XSalsa20Poly1305 keys. */
@@ -47,9 +49,7 @@ public class Keys {
    */
   public static byte[] generatePrivateKey() {
     final byte[] k = generateSecretKey();
-    k[0] &= (byte) 248;
-    k[31] &= (byte) 127;
-    k[31] |= (byte) 64;
+    clamp(k, 0);
     return k;
   }
 
@@ -65,6 +65,59 @@ public class Keys {
     return publicKey;
   }
 
+  /**
+   * Generates {@code n} 32-byte secret keys.
+   *
+   * <p>The keys are generated with a single call to {@link SecureRandom}, and are returned
+   * concatenated in a single array, with key {@code i} at offset {@code i * 32}.
+   *
+   * @param n the number of keys to generate
+   * @return an array of {@code n * 32} bytes
+   */
+  public static byte[] generateSecretKeys(int n) {
+    final byte[] k = new byte[bulkLength(n)];
+    final SecureRandom random = new SecureRandom();
+    random.nextBytes(k);
+    return k;
+  }
+
+  /**
+   * Generates {@code n} Curve25519 private keys.
+   *
+   * <p>The keys are returned concatenated in a single array, with key {@code i} at offset {@code i
+   * * 32}.
+   *
+   * @param n the number of keys to generate
+   * @return an array of {@code n * 32} bytes
+   */
+  public static byte[] generatePrivateKeys(int n) {
+    final byte[] k = generateSecretKeys(n);
+    for (int i = 0; i < k.length; i += KEY_LEN) {
+      clamp(k, i);
+    }
+    return k;
+  }
+
+  /**
+   * Generates the Curve25519 public keys for the given concatenated Curve25519 private keys.
+   *
+   * <p>The scalar multiplications are run in parallel on the common fork-join pool.
+   *
+   * @param privateKeys concatenated Curve25519 private keys
+   * @return the matching public keys, concatenated in the same order
+   * @see #generatePrivateKeys(int)
+   */
+  public static byte[] generatePublicKeys(byte[] privateKeys) {
+    if (privateKeys.length % KEY_LEN != 0) {
+      throw new IllegalArgumentException("privateKeys must be a multiple of 32 bytes long");
+    }
+    final byte[] publicKeys = new byte[privateKeys.length];
+    IntStream.range(0, privateKeys.length / KEY_LEN)
+        .parallel()
+        .forEach(i -> X25519.scalarMultBase(privateKeys, i * KEY_LEN, publicKeys, i * KEY_LEN));
+    return publicKeys;
+  }
+
   /**
    * Calculate the X25519/HSalsa20 shared secret for the given public key and private key.
    *
@@ -77,6 +130,20 @@ public class Keys {
     X25519.scalarMult(privateKey, 0, publicKey, 0, s, 0);
     final byte[] k = new byte[KEY_LEN];
     HSalsa20.hsalsa20(k, HSALSA20_SEED, s);
+    Arrays.fill(s, (byte) 0);
     return k;
   }
+
+  private static void clamp(byte[] k, int off) {
+    k[off] &= (byte) 248;
+    k[off + 31] &= (byte) 127;
+    k[off + 31] |= (byte) 64;
+  }
+
+  private static int bulkLength(int n) {
+    if (n < 0 || n > Integer.MAX_VALUE / KEY_LEN) {
+      throw new IllegalArgumentException("n must be between 0 and " + Integer.MAX_VALUE / KEY_LEN);
+    }
+    return n * KEY_LEN;
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+/**
+ * A view of the plaintext of an authenticated ciphertext, which decrypts ranges on demand.
+ *
+ * <p>Reading a range seeks the XSalsa20 keystream to the start of the range, so reading a prefix of
+ * a large message only costs as much as the prefix. Views are thread-safe.
+ *
+ * @see SecretBox#openLazily(byte[], byte[])
+ */
+public class LazyPlaintext {
+
+  private final SecretBox box;
+  private final byte[] nonce;
+  private final byte[] ciphertext;
+
+  LazyPlaintext(SecretBox box, byte[] nonce, byte[] ciphertext) {
+    this.box = box;
+    this.nonce = nonce;
+    this.ciphertext = ciphertext;
+  }
+
+  /**
+   * Returns the length of the plaintext.
+   *
+   * @return the length of the plaintext in bytes
+   */
+  public int length() {
+    return ciphertext.length - SecretBox.MAC_SIZE;
+  }
+
+  /**
+   * Decrypts a range of the plaintext.
+   *
+   * @param offset the offset of the range in the plaintext
+   * @param len the length of the range
+   * @return the plaintext in the range
+   * @throws IndexOutOfBoundsException if the range is not within the plaintext
+   */
+  public byte[] read(int offset, int len) {
+    checkRange(offset, len);
+    final byte[] out = new byte[len];
+    read(offset, out, 0, len);
+    return out;
+  }
+
+  /**
+   * Decrypts a range of the plaintext into the given array.
+   *
+   * @param offset the offset of the range in the plaintext
+   * @param out the array to which the plaintext will be written
+   * @param outOff the offset in {@code out} at which to write the plaintext
+   * @param len the length of the range
+   * @throws IndexOutOfBoundsException if the range is not within the plaintext or {@code out}
+   */
+  public void read(int offset, byte[] out, int outOff, int len) {
+    checkRange(offset, len);
+    if (outOff < 0 || outOff > out.length - len) {
+      throw new IndexOutOfBoundsException("range is not within the output array");
+    }
+    box.decrypt(nonce, ciphertext, offset, out, outOff, len);
+  }
+
+  /**
+   * Decrypts the entire plaintext.
+   *
+   * @return the plaintext
+   */
+  public byte[] toByteArray() {
+    return read(0, length());
+  }
+
+  private void checkRange(int offset, int len) {
+    if (offset < 0 || len < 0 || offset > length() - len) {
+      throw new IndexOutOfBoundsException("range is not within the plaintext");
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free detector for nonces which have recently been used to seal messages.
+ *
+ * <p>Recent nonces are recorded in a pair of Bloom filters. Each nonce maps to a single 64-bit word
+ * of a filter, so recording and checking a nonce is a single atomic operation. Once the current
+ * filter has recorded {@code expectedNonces} nonces, it becomes the previous filter and a fresh one
+ * takes its place, so the guard always remembers at least the last {@code expectedNonces} nonces.
+ *
+ * <p>A nonce is checked against both filters, so each is sized for half the target false positive
+ * rate, accounting for the uneven load of single-word blocks. The guard uses somewhat more than
+ * {@code 2 * expectedNonces * -ln(falsePositiveRate / 2) / ln(2)^2} bits of memory.
+ *
+ * <p>Because the filters are probabilistic, a nonce which has not been used may be reported as a
+ * suspected reuse. Because the filters are rotated, a nonce reused long after its first use may not
+ * be detected at all. A guard should be used with a single key.
+ *
+ * @see SecretBox#SecretBox(byte[], NonceGuard)
+ */
+public class NonceGuard {
+
+  private static final int MAX_HASHES = 10;
+
+  private final long capacity;
+  private final int words;
+  private final int hashes;
+  private final boolean reject;
+  private final AtomicReference<Generation[]> generations;
+  private final LongAdder checked = new LongAdder();
+  private final LongAdder suspected = new LongAdder();
+  private final LongAdder rotations = new LongAdder();
+
+  /**
+   * Create a new {@link NonceGuard}.
+   *
+   * @param expectedNonces the number of recent nonces to remember
+   * @param falsePositiveRate the maximum rate at which unused nonces will be reported as suspected
+   *     reuses
+   * @param reject whether {@link SecretBox#seal(byte[], byte[])} should throw an {@link
+   *     IllegalArgumentException} for suspected reuses, or merely count them
+   */
+  public NonceGuard(long expectedNonces, double falsePositiveRate, boolean reject) {
+    if (expectedNonces < 1) {
+      throw new IllegalArgumentException("expectedNonces must be positive");
+    }
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+    }
+    // start with a classic Bloom filter's size and double it until the blocked layout is good
+    // enough
+    final double target = falsePositiveRate / 2;
+    final double bitsPerNonce = -Math.log(target) / (Math.log(2) * Math.log(2));
+    final long bits = (long) Math.ceil(expectedNonces * bitsPerNonce);
+    long words = Long.highestOneBit(Math.max(1, (bits + 63) / 64) * 2 - 1);
+    int hashes = 1;
+    while (true) {
+      if (words > 1 << 30) {
+        throw new IllegalArgumentException("expectedNonces is too large");
+      }
+      double best = 1;
+      for (int k = 1; k <= MAX_HASHES; k++) {
+        final double rate = blockedFalsePositiveRate((double) expectedNonces / words, k);
+        if (rate < best) {
+          best = rate;
+          hashes = k;
+        }
+      }
+      if (best <= target) {
+        break;
+      }
+      words *= 2;
+    }
+    this.capacity = expectedNonces;
+    this.words = (int) words;
+    this.hashes = hashes;
+    this.reject = reject;
+    this.generations =
+        new AtomicReference<>(
+            new Generation[] {new Generation(this.words), new Generation(this.words)});
+  }
+
+  /**
+   * Records the given nonce.
+   *
+   * @param nonce a 24-byte nonce
+   * @return {@code true} if the nonce has not been recently recorded, or {@code false} if it is
+   *     suspected of being reused
+   */
+  public boolean add(byte[] nonce) {
+    final long h =
+        mix(
+            mix(mix(Bytes.getLongLE(nonce, 0)) ^ Bytes.getLongLE(nonce, 8))
+                ^ Bytes.getLongLE(nonce, 16));
+    final int word = (int) h & (words - 1);
+    final long bits = bits(mix(h));
+
+    final Generation[] g = generations.get();
+    final long old = g[0].words.getAndAccumulate(word, bits, (a, b) -> a | b);
+    final boolean reused = (old & bits) == bits || (g[1].words.get(word) & bits) == bits;
+    if (g[0].count.incrementAndGet() == capacity
+        && generations.compareAndSet(g, new Generation[] {new Generation(words), g[0]})) {
+      rotations.increment();
+    }
+
+    checked.increment();
+    if (reused) {
+      suspected.increment();
+    }
+    return !reused;
+  }
+
+  /**
+   * Returns whether suspected reuses should be rejected.
+   *
+   * @return {@code true} if suspected reuses should be rejected
+   */
+  public boolean rejects() {
+    return reject;
+  }
+
+  /**
+   * Returns the number of nonces which have been checked.
+   *
+   * @return the number of nonces checked
+   */
+  public long checked() {
+    return checked.sum();
+  }
+
+  /**
+   * Returns the number of nonces which were suspected of being reused.
+   *
+   * @return the number of suspected reuses
+   */
+  public long suspectedReuses() {
+    return suspected.sum();
+  }
+
+  /**
+   * Returns the number of times the filters have been rotated.
+   *
+   * @return the number of rotations
+   */
+  public long rotations() {
+    return rotations.sum();
+  }
+
+  /**
+   * Returns the approximate number of bytes used by the filters.
+   *
+   * @return the size of the filters in bytes
+   */
+  public long sizeInBytes() {
+    return 2L * words * Long.BYTES;
+  }
+
+  private long bits(long h) {
+    long bits = 0;
+    for (int i = 0; i < hashes; i++) {
+      bits |= 1L << (h >>> (i * 6));
+    }
+    return bits;
+  }
+
+  // The false positive rate of a full filter with the given mean number of nonces per 64-bit word,
+  // summed over the Poisson-distributed load of each word.
+  private static double blockedFalsePositiveRate(double load, int hashes) {
+    final int max = (int) Math.ceil(load + 12 * Math.sqrt(load) + 20);
+    final double miss = Math.log1p(-1.0 / Long.SIZE);
+    double logP = -load;
+    double rate = 0;
+    for (int i = 0; i <= max; i++) {
+      if (i > 0) {
+        logP += Math.log(load) - Math.log(i);
+      }
+      final double bitSet = -Math.expm1(hashes * i * miss);
+      rate += Math.exp(logP) * Math.pow(bitSet, hashes);
+    }
+    return rate;
+  }
+
+  // the MurmurHash3 finalizer
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static class Generation {
+    private final AtomicLongArray words;
+    private final AtomicLong count = new AtomicLong();
+
+    private Generation(int size) {
+      this.words = new AtomicLongArray(size);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.stream.IntStream;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.util.Pack;
+
+/**
+ * A Blake2bp-style tree hash based on the Bouncy Castle Blake2b digest.
+ *
+ * <p>The message is split into {@link #LEAVES} contiguous segments, each of which is hashed by a
+ * keyed Blake2b leaf with a 64-byte digest. The root is a keyed Blake2b of the leaf digests and the
+ * message length. Bouncy Castle doesn't expose Blake2b's tree parameters, so leaves are separated
+ * from each other by their personalization and from the root by their digest length. Large messages
+ * have their leaves hashed in parallel on machines with more than one CPU.
+ */
+class ParallelBlake2b {
+
+  static final int LEAVES = 4;
+  private static final int LEAF_SIZE = 64;
+  private static final int MIN_PARALLEL_LENGTH = 64 * 1024;
+
+  private ParallelBlake2b() {
+    // singleton
+  }
+
+  static void hash(byte[] out, byte[] key, byte[] salt, byte[] personalization, byte[] message) {
+    hash(out, key, salt, personalization, message, isParallel(message.length));
+  }
+
+  // The common pool reports a parallelism of 1 even on a single CPU, so ask the runtime instead.
+  static boolean isParallel(int length) {
+    return length >= MIN_PARALLEL_LENGTH && Runtime.getRuntime().availableProcessors() > 1;
+  }
+
+  static void hash(
+      byte[] out,
+      byte[] key,
+      byte[] salt,
+      byte[] personalization,
+      byte[] message,
+      boolean parallel) {
+    final byte[] leaves = new byte[LEAVES * LEAF_SIZE];
+    if (!parallel) {
+      for (int i = 0; i < LEAVES; i++) {
+        leaf(leaves, key, salt, message, i);
+      }
+    } else {
+      IntStream.range(0, LEAVES).parallel().forEach(i -> leaf(leaves, key, salt, message, i));
+    }
+
+    final Blake2bDigest root = new Blake2bDigest(key, out.length, salt, personalization);
+    root.update(leaves, 0, leaves.length);
+    final byte[] len = Pack.longToLittleEndian(message.length);
+    root.update(len, 0, len.length);
+    root.doFinal(out, 0);
+  }
+
+  private static void leaf(byte[] out, byte[] key, byte[] salt, byte[] message, int i) {
+    final int start = (int) ((long) message.length * i / LEAVES);
+    final int end = (int) ((long) message.length * (i + 1) / LEAVES);
+    final byte[] personalization = new byte[16];
+    personalization[0] = (byte) i;
+    final Blake2bDigest blake2b = new Blake2bDigest(key, LEAF_SIZE, salt, personalization);
+    blake2b.update(message, start, end - start);
+    blake2b.doFinal(out, i * LEAF_SIZE);
+  }
+}
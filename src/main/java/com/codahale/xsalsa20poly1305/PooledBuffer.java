@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.Arrays;
+
+/**
+ * A lease on a buffer from a {@link BufferPool}.
+ *
+ * <p>The buffer's contents are the first {@link #length()} bytes of {@link #array()}. Closing the
+ * lease wipes the buffer and returns it to the pool, after which it must not be used. Leases are
+ * not thread-safe.
+ */
+public class PooledBuffer implements AutoCloseable {
+
+  private final BufferPool pool;
+  private final int length;
+  private byte[] array;
+
+  PooledBuffer(BufferPool pool, byte[] array, int length) {
+    this.pool = pool;
+    this.array = array;
+    this.length = length;
+  }
+
+  /**
+   * Returns the underlying array, which may be longer than {@link #length()}.
+   *
+   * @return the underlying array
+   * @throws IllegalStateException if the lease has been closed
+   */
+  public byte[] array() {
+    if (array == null) {
+      throw new IllegalStateException("buffer has been released");
+    }
+    return array;
+  }
+
+  /**
+   * Returns the number of bytes of data in the buffer.
+   *
+   * @return the length of the data
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Returns a copy of the data in the buffer.
+   *
+   * @return a copy of the first {@link #length()} bytes of the buffer
+   * @throws IllegalStateException if the lease has been closed
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(array(), length);
+  }
+
+  /** Wipes the buffer and returns it to its pool. */
+  @Override
+  public void close() {
+    if (array != null) {
+      pool.release(array);
+      array = null;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Pack;
+
+/**
+ * Low-latency encryption using keystream generated ahead of time.
+ *
+ * <p>A background thread fills a bounded ring of slots, each holding a nonce, its Poly1305 subkey,
+ * and enough XSalsa20 keystream for a message of up to the maximum size. Sealing a message takes a
+ * slot from the ring, so only the XOR and MAC remain on the caller's thread. Each slot is used
+ * exactly once and wiped afterwards. If the ring is empty or the message is too large, the message
+ * is sealed normally.
+ *
+ * <p>Nonces are a random 16-byte prefix followed by a 64-bit big-endian counter, so they are unique
+ * for the lifetime of the sealer. Ciphertexts are in {@link SimpleBox} format and can be decrypted
+ * with {@link SimpleBox#open(byte[])}.
+ */
+public class PrecomputedSealer implements AutoCloseable {
+
+  private static final int COUNTER_OFFSET = SecretBox.NONCE_SIZE - Long.BYTES;
+  private static final long MIN_BACKOFF_MILLIS = 10;
+  private static final long MAX_BACKOFF_MILLIS = 1000;
+
+  private final SecretBox box;
+  private final int maxMessageSize;
+  private final byte[] prefix = new byte[COUNTER_OFFSET];
+  private final AtomicLong counter = new AtomicLong();
+  private final BlockingQueue<Slot> ring;
+  private final Thread filler;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+  private final LongAdder fillerFailures = new LongAdder();
+  // seals hold the read lock so the key can't be wiped while in use
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile boolean closed;
+
+  /**
+   * Create a new {@link PrecomputedSealer} instance with the given secret key.
+   *
+   * @param secretKey a 32-byte secret key
+   * @param slots the number of slots to precompute
+   * @param maxMessageSize the size of the largest message which can use a precomputed slot. Each
+   *     slot holds {@code maxMessageSize} bytes of keystream whether or not the message it seals is
+   *     that large, so the ring retains about {@code slots * maxMessageSize} bytes and the
+   *     background thread generates that much keystream per {@code slots} messages.
+   */
+  public PrecomputedSealer(byte[] secretKey, int slots, int maxMessageSize) {
+    this(new SecretBox(secretKey), slots, maxMessageSize);
+  }
+
+  /**
+   * Create a new {@link PrecomputedSealer} instance given a Curve25519 public key and a Curve25519
+   * private key.
+   *
+   * @param publicKey a Curve25519 public key
+   * @param privateKey a Curve25519 private key
+   * @param slots the number of slots to precompute
+   * @param maxMessageSize the size of the largest message which can use a precomputed slot. Each
+   *     slot holds {@code maxMessageSize} bytes of keystream whether or not the message it seals is
+   *     that large, so the ring retains about {@code slots * maxMessageSize} bytes and the
+   *     background thread generates that much keystream per {@code slots} messages.
+   */
+  public PrecomputedSealer(byte[] publicKey, byte[] privateKey, int slots, int maxMessageSize) {
+    this(new SecretBox(publicKey, privateKey), slots, maxMessageSize);
+  }
+
+  private PrecomputedSealer(SecretBox box, int slots, int maxMessageSize) {
+    if (slots < 1) {
+      throw new IllegalArgumentException("slots must be positive");
+    }
+    if (maxMessageSize < 0 || maxMessageSize > Integer.MAX_VALUE - Keys.KEY_LEN) {
+      throw new IllegalArgumentException(
+          "maxMessageSize must be between 0 and " + (Integer.MAX_VALUE - Keys.KEY_LEN));
+    }
+    this.box = box;
+    this.maxMessageSize = maxMessageSize;
+    this.ring = new ArrayBlockingQueue<>(slots);
+    new SecureRandom().nextBytes(prefix);
+    this.filler = new Thread(this::fill, "xsalsa20poly1305-precompute");
+    filler.setDaemon(true);
+    filler.start();
+  }
+
+  /**
+   * Encrypt the plaintext, using a precomputed slot if one is available.
+   *
+   * @param plaintext any arbitrary bytes
+   * @return the nonce followed by the ciphertext
+   * @throws IllegalStateException if the sealer has been closed
+   */
+  public byte[] seal(byte[] plaintext) {
+    final Lock read = lock.readLock();
+    read.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("sealer has been closed");
+      }
+      return sealOpen(plaintext);
+    } finally {
+      read.unlock();
+    }
+  }
+
+  private byte[] sealOpen(byte[] plaintext) {
+    final Slot slot = plaintext.length <= maxMessageSize ? ring.poll() : null;
+    if (slot == null) {
+      fallbacks.increment();
+      final byte[] nonce = nextNonce();
+      final byte[] ciphertext = box.seal(nonce, plaintext);
+      final byte[] out = new byte[nonce.length + ciphertext.length];
+      System.arraycopy(nonce, 0, out, 0, nonce.length);
+      System.arraycopy(ciphertext, 0, out, nonce.length, ciphertext.length);
+      return out;
+    }
+
+    hits.increment();
+    try {
+      final int ctOff = SecretBox.NONCE_SIZE + SecretBox.MAC_SIZE;
+      final byte[] out = new byte[ctOff + plaintext.length];
+      System.arraycopy(slot.nonce, 0, out, 0, SecretBox.NONCE_SIZE);
+
+      // encrypt plaintext with the keystream following the subkey
+      Bytes.xor(plaintext, 0, slot.keystream, Keys.KEY_LEN, out, ctOff, plaintext.length);
+
+      // hash ciphertext and prepend mac to ciphertext
+      final Poly1305 poly1305 = new Poly1305();
+      poly1305.init(new KeyParameter(slot.keystream, 0, Keys.KEY_LEN));
+      poly1305.update(out, ctOff, plaintext.length);
+      poly1305.doFinal(out, SecretBox.NONCE_SIZE);
+      return out;
+    } finally {
+      slot.wipe();
+    }
+  }
+
+  /**
+   * Returns the number of precomputed slots ready for use.
+   *
+   * @return the ring's occupancy
+   */
+  public int occupancy() {
+    return ring.size();
+  }
+
+  /**
+   * Returns the number of messages sealed with a precomputed slot.
+   *
+   * @return the number of hits
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of messages sealed without a precomputed slot, either because the ring was
+   * empty or because the message was larger than the maximum size.
+   *
+   * @return the number of fallbacks
+   */
+  public long fallbacks() {
+    return fallbacks.sum();
+  }
+
+  /**
+   * Returns the number of times the background thread failed to precompute a slot. After a failure,
+   * the thread waits for a backoff of up to a second before trying again, and messages are sealed
+   * without precomputed slots once the ring is empty.
+   *
+   * @return the number of filler failures
+   */
+  public long fillerFailures() {
+    return fillerFailures.sum();
+  }
+
+  /**
+   * Stops the background thread and wipes the key and all unused slots. Waits for in-progress seals
+   * to finish.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    filler.interrupt();
+    try {
+      filler.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    final Lock write = lock.writeLock();
+    write.lock();
+    try {
+      Slot slot;
+      while ((slot = ring.poll()) != null) {
+        slot.wipe();
+      }
+      box.wipe();
+    } finally {
+      write.unlock();
+    }
+  }
+
+  private void fill() {
+    long backoff = MIN_BACKOFF_MILLIS;
+    while (!closed) {
+      Slot slot;
+      final Lock read = lock.readLock();
+      read.lock();
+      try {
+        if (closed) {
+          return;
+        }
+        final byte[] nonce = nextNonce();
+        slot = new Slot(nonce, box.keystream(nonce, maxMessageSize));
+      } catch (RuntimeException e) {
+        fillerFailures.increment();
+        slot = null;
+      } finally {
+        read.unlock();
+      }
+      try {
+        if (slot == null) {
+          // back off exponentially until a slot can be computed again
+          Thread.sleep(backoff);
+          backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+          continue;
+        }
+        backoff = MIN_BACKOFF_MILLIS;
+        ring.put(slot);
+      } catch (InterruptedException e) {
+        if (slot != null) {
+          slot.wipe();
+        }
+        return;
+      }
+    }
+  }
+
+  private byte[] nextNonce() {
+    final byte[] nonce = Arrays.copyOf(prefix, SecretBox.NONCE_SIZE);
+    Pack.longToBigEndian(counter.getAndIncrement(), nonce, COUNTER_OFFSET);
+    return nonce;
+  }
+
+  private static class Slot {
+    private final byte[] nonce;
+    private final byte[] keystream;
+
+    private Slot(byte[] nonce, byte[] keystream) {
+      this.nonce = nonce;
+      this.keystream = keystream;
+    }
+
+    private void wipe() {
+      Arrays.fill(keystream, (byte) 0);
+    }
+  }
+}
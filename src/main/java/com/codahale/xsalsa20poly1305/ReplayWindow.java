@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.bouncycastle.util.Pack;
+
+/**
+ * A lock-free, IPsec-style anti-replay window for counter-structured nonces.
+ *
+ * <p>A counter-structured nonce is a 24-byte nonce whose last 8 bytes are a big-endian counter
+ * which the sender increments for each message. The window tracks the highest counter accepted so
+ * far and a bitmap of which of the preceding counters have been accepted. Counters which have
+ * already been accepted, or which are too old to be tracked, are rejected.
+ *
+ * <p>The bitmap is a ring of words, each covering a block of 32 counters and tagged with the
+ * block's number, as in RFC 6479. Accepting a counter takes a compare-and-set on the highest
+ * counter, if it advances, and one on the counter's word, so a single window can be shared by many
+ * receiving threads without copying or locking. A window should be used with a single key and
+ * sender.
+ *
+ * @see SecretBox#open(byte[], byte[], ReplayWindow)
+ */
+public class ReplayWindow {
+
+  private static final int BLOCK_BITS = 5;
+  private static final long BLOCK_MASK = (1L << BLOCK_BITS) - 1;
+
+  private final int size;
+  private final AtomicLong top = new AtomicLong(-1);
+  // each word is a 32-bit block tag followed by a bitmap of the block's accepted counters
+  private final AtomicLongArray ring;
+
+  /**
+   * Create a new {@link ReplayWindow}.
+   *
+   * @param size the number of counters tracked below the highest accepted counter, which must be a
+   *     positive multiple of 64
+   */
+  public ReplayWindow(int size) {
+    if (size < 64 || size % 64 != 0) {
+      throw new IllegalArgumentException("size must be a positive multiple of 64");
+    }
+    this.size = size;
+    // one extra word, so a word is only reused once all of its counters are too old
+    this.ring = new AtomicLongArray((size >>> BLOCK_BITS) + 1);
+  }
+
+  /**
+   * Returns whether the given counter has already been accepted or is too old to be tracked.
+   *
+   * @param counter a message counter
+   * @return {@code true} if a message with {@code counter} should be rejected
+   */
+  public boolean isReplay(long counter) {
+    if (counter < 0) {
+      return true;
+    }
+    if (counter > top.get()) {
+      return false;
+    }
+    final long w = ring.get(index(counter));
+    if (isTooOld(counter)) {
+      return true;
+    }
+    // a word with another tag is stale, since a newer one would have made the counter too old
+    return tag(w) == block(counter) && (w & bit(counter)) != 0;
+  }
+
+  /**
+   * Accepts the given counter if it has not already been accepted and is not too old to be tracked.
+   *
+   * <p>Counters should only be accepted after the message has been authenticated.
+   *
+   * @param counter a message counter
+   * @return {@code true} if {@code counter} was accepted, {@code false} if it is a replay
+   */
+  public boolean accept(long counter) {
+    if (counter < 0) {
+      return false;
+    }
+
+    // advance the highest counter before touching the ring, so any thread which sees a reused word
+    // also sees the counters it replaced as too old
+    long t;
+    while (counter > (t = top.get()) && !top.compareAndSet(t, counter)) {
+      // retry
+    }
+
+    final int i = index(counter);
+    while (true) {
+      final long w = ring.get(i);
+      if (isTooOld(counter)) {
+        return false;
+      }
+      final long next;
+      if (tag(w) == block(counter)) {
+        if ((w & bit(counter)) != 0) {
+          return false;
+        }
+        next = w | bit(counter);
+      } else {
+        next = block(counter) << 32 | bit(counter);
+      }
+      if (ring.compareAndSet(i, w, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Returns the highest counter accepted so far, or {@code -1} if none have been accepted.
+   *
+   * @return the highest accepted counter
+   */
+  public long highest() {
+    return top.get();
+  }
+
+  static long counter(byte[] nonce) {
+    if (nonce.length != SecretBox.NONCE_SIZE) {
+      throw new IllegalArgumentException("nonce must be 24 bytes long");
+    }
+    return Pack.bigEndianToLong(nonce, SecretBox.NONCE_SIZE - Long.BYTES);
+  }
+
+  private boolean isTooOld(long counter) {
+    return top.get() - counter >= size;
+  }
+
+  private int index(long counter) {
+    return (int) ((counter >>> BLOCK_BITS) % ring.length());
+  }
+
+  // the low 32 bits of the counter's block number
+  private static long block(long counter) {
+    return (counter >>> BLOCK_BITS) & 0xffffffffL;
+  }
+
+  private static long tag(long word) {
+    return word >>> 32;
+  }
+
+  private static long bit(long counter) {
+    return 1L << (counter & BLOCK_MASK);
+  }
+}
@@ -15,7 +15,7 @@
  */
 package com.codahale.xsalsa20poly1305;
 
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Optional;
@@ -24,6 +24,7 @@ import org.bouncycastle.crypto.engines.XSalsa20Engine;
 import org.bouncycastle.crypto.macs.Poly1305;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Pack;
 
 /**
  * Encryption and decryption using XSalsa20Poly1305.
@@ -33,7 +34,13 @@ import org.bouncycastle.crypto.params.ParametersWithIV;
 public class SecretBox {
 
   static final int NONCE_SIZE = 24;
+  static final int MAC_SIZE = 16;
+  private static final int SCRATCH_SIZE = 4096;
+  private static final byte[] PADDING = new byte[16];
   private final byte[] key;
+  private final KeySlab slab;
+  private final int slot;
+  private final NonceGuard guard;
 
   /**
    * Create a new {@link SecretBox} instance with the given secret key.
@@ -42,10 +49,19 @@ public class SecretBox {
    * @see Keys#generateSecretKey()
    */
   public SecretBox(byte[] secretKey) {
-    if (secretKey.length != Keys.KEY_LEN) {
-      throw new IllegalArgumentException("secretKey must be 32 bytes long");
-    }
-    this.key = Arrays.copyOf(secretKey, secretKey.length);
+    this(secretKey, (NonceGuard) null);
+  }
+
+  /**
+   * Create a new {@link SecretBox} instance with the given secret key which checks all sealed
+   * nonces with the given {@link NonceGuard}.
+   *
+   * @param secretKey a 32-byte secret key
+   * @param guard a {@link NonceGuard} used only with {@code secretKey}
+   * @see Keys#generateSecretKey()
+   */
+  public SecretBox(byte[] secretKey, NonceGuard guard) {
+    this(copyKey(secretKey), null, 0, guard);
   }
 
   /**
@@ -58,7 +74,20 @@ public class SecretBox {
    * @see Keys#generatePublicKey(byte[])
    */
   public SecretBox(byte[] publicKey, byte[] privateKey) {
-    this(Keys.sharedSecret(publicKey, privateKey));
+    // the shared secret is only held by this box, so it's used without copying
+    this(Keys.sharedSecret(publicKey, privateKey), null, 0, null);
+  }
+
+  // Creates a box which reads its key from the given slab for each operation.
+  SecretBox(KeySlab slab, int slot) {
+    this(null, slab, slot, null);
+  }
+
+  private SecretBox(byte[] key, KeySlab slab, int slot, NonceGuard guard) {
+    this.key = key;
+    this.slab = slab;
+    this.slot = slot;
+    this.guard = guard;
   }
 
   /**
@@ -67,28 +96,86 @@ public class SecretBox {
    * @param nonce a 24-byte nonce (cf. {@link #nonce(byte[])}, {@link #nonce()})
    * @param plaintext an arbitrary message
    * @return the ciphertext
+   * @throws IllegalArgumentException if this box has a rejecting {@link NonceGuard} and {@code
+   *     nonce} is suspected of being reused
    */
   public byte[] seal(byte[] nonce, byte[] plaintext) {
-    final XSalsa20Engine xsalsa20 = new XSalsa20Engine();
-    final Poly1305 poly1305 = new Poly1305();
+    final byte[] out = new byte[plaintext.length + MAC_SIZE];
+    sealInto(nonce, plaintext, out);
+    return out;
+  }
 
-    // initialize XSalsa20
-    xsalsa20.init(true, new ParametersWithIV(new KeyParameter(key), nonce));
+  /**
+   * Encrypt a plaintext using the given key and nonce into a buffer from the given pool.
+   *
+   * @param nonce a 24-byte nonce (cf. {@link #nonce(byte[])}, {@link #nonce()})
+   * @param plaintext an arbitrary message
+   * @param pool the {@link BufferPool} from which to acquire the output buffer
+   * @return a {@link PooledBuffer} containing the ciphertext, which must be closed after use
+   * @throws IllegalArgumentException if this box has a rejecting {@link NonceGuard} and {@code
+   *     nonce} is suspected of being reused
+   */
+  public PooledBuffer seal(byte[] nonce, byte[] plaintext, BufferPool pool) {
+    final PooledBuffer out = pool.acquire(plaintext.length + MAC_SIZE);
+    try {
+      sealInto(nonce, plaintext, out.array());
+    } catch (RuntimeException e) {
+      out.close();
+      throw e;
+    }
+    return out;
+  }
 
-    // generate Poly1305 subkey
-    final byte[] sk = new byte[Keys.KEY_LEN];
-    xsalsa20.processBytes(sk, 0, Keys.KEY_LEN, sk, 0);
+  private void sealInto(byte[] nonce, byte[] plaintext, byte[] out) {
+    final Poly1305 poly1305 = new Poly1305();
+    final XSalsa20Engine xsalsa20 = init(true, nonce, poly1305);
+    checkNonce(nonce);
 
     // encrypt plaintext
-    final byte[] out = new byte[plaintext.length + poly1305.getMacSize()];
-    xsalsa20.processBytes(plaintext, 0, plaintext.length, out, poly1305.getMacSize());
+    xsalsa20.processBytes(plaintext, 0, plaintext.length, out, MAC_SIZE);
 
     // hash ciphertext and prepend mac to ciphertext
-    poly1305.init(new KeyParameter(sk));
-    poly1305.update(out, poly1305.getMacSize(), plaintext.length);
+    poly1305.update(out, MAC_SIZE, plaintext.length);
     poly1305.doFinal(out, 0);
+  }
 
-    return out;
+  /**
+   * Encrypt the concatenation of several plaintext buffers using the given key and nonce.
+   *
+   * <p>The result is the same as {@link #seal(byte[], byte[])} of the concatenated buffers. The
+   * remaining bytes of each source buffer are consumed, and the ciphertext is written to {@code
+   * dst} at its current position. The source and destination buffers must not overlap.
+   *
+   * @param nonce a 24-byte nonce (cf. {@link #nonce(byte[])}, {@link #nonce()})
+   * @param srcs the buffers containing the plaintext
+   * @param dst the buffer to which the ciphertext will be written
+   * @throws IllegalArgumentException if {@code dst} is too small to contain the ciphertext, or if
+   *     this box has a rejecting {@link NonceGuard} and {@code nonce} is suspected of being reused
+   */
+  public void seal(byte[] nonce, ByteBuffer[] srcs, ByteBuffer dst) {
+    final int len = remaining(srcs);
+    if (dst.remaining() - MAC_SIZE < len) {
+      throw new IllegalArgumentException("dst is too small");
+    }
+
+    final Poly1305 poly1305 = new Poly1305();
+    final XSalsa20Engine xsalsa20 = init(true, nonce, poly1305);
+    checkNonce(nonce);
+
+    // encrypt and hash plaintext, leaving room for the mac
+    final int macPosition = dst.position();
+    dst.position(macPosition + MAC_SIZE);
+    final byte[] scratch = scratch(len, dst, srcs);
+    for (ByteBuffer src : srcs) {
+      crypt(xsalsa20, poly1305, src, dst, src.remaining(), scratch);
+    }
+
+    // prepend mac to ciphertext
+    final byte[] mac = new byte[MAC_SIZE];
+    poly1305.doFinal(mac, 0);
+    for (int i = 0; i < MAC_SIZE; i++) {
+      dst.put(macPosition + i, mac[i]);
+    }
   }
 
   /**
@@ -102,37 +189,195 @@ public class SecretBox {
    * @see #nonce()
    */
   public Optional<byte[]> open(byte[] nonce, byte[] ciphertext) {
-    final XSalsa20Engine xsalsa20 = new XSalsa20Engine();
-    final Poly1305 poly1305 = new Poly1305();
+    return authenticate(nonce, ciphertext, null).map(xsalsa20 -> decrypt(xsalsa20, ciphertext));
+  }
 
-    // initialize XSalsa20
-    xsalsa20.init(false, new ParametersWithIV(new KeyParameter(key), nonce));
+  /**
+   * Verify a ciphertext using the given key and nonce without decrypting it.
+   *
+   * @param nonce a 24-byte nonce
+   * @param ciphertext the encrypted message
+   * @return {@code true} if the ciphertext is authentic, or {@code false} if either the key, nonce,
+   *     or ciphertext was modified
+   */
+  public boolean verify(byte[] nonce, byte[] ciphertext) {
+    return authenticate(nonce, ciphertext, null).isPresent();
+  }
 
-    // generate mac subkey
-    final byte[] sk = new byte[Keys.KEY_LEN];
-    xsalsa20.processBytes(sk, 0, sk.length, sk, 0);
+  /**
+   * Verify a ciphertext using the given key and nonce, returning a view which decrypts ranges of
+   * the plaintext on demand.
+   *
+   * <p>The view holds its own copy of {@code ciphertext}, which is authenticated before the view is
+   * returned, so later changes to {@code ciphertext} do not affect it.
+   *
+   * @param nonce a 24-byte nonce
+   * @param ciphertext the encrypted message
+   * @return an {@link Optional} of a {@link LazyPlaintext} view of the original plaintext, or if
+   *     either the key, nonce, or ciphertext was modified, an empty {@link Optional}
+   */
+  public Optional<LazyPlaintext> openLazily(byte[] nonce, byte[] ciphertext) {
+    // verify the copy, so the caller can't swap the ciphertext after it's authenticated
+    final byte[] copy = ciphertext.clone();
+    if (!verify(nonce, copy)) {
+      return Optional.empty();
+    }
+    return Optional.of(new LazyPlaintext(this, nonce.clone(), copy));
+  }
 
-    // hash ciphertext
-    poly1305.init(new KeyParameter(sk));
-    final int len = Math.max(ciphertext.length - poly1305.getMacSize(), 0);
-    poly1305.update(ciphertext, poly1305.getMacSize(), len);
-    final byte[] calculatedMAC = new byte[poly1305.getMacSize()];
-    poly1305.doFinal(calculatedMAC, 0);
+  /**
+   * Decrypt a ciphertext using the given key and nonce into a buffer from the given pool.
+   *
+   * @param nonce a 24-byte nonce
+   * @param ciphertext the encrypted message
+   * @param pool the {@link BufferPool} from which to acquire the output buffer
+   * @return an {@link Optional} of a {@link PooledBuffer} containing the original plaintext, which
+   *     must be closed after use, or if either the key, nonce, or ciphertext was modified, an empty
+   *     {@link Optional}
+   */
+  public Optional<PooledBuffer> open(byte[] nonce, byte[] ciphertext, BufferPool pool) {
+    return authenticate(nonce, ciphertext, null)
+        .map(
+            xsalsa20 -> {
+              final PooledBuffer plaintext = pool.acquire(plaintextLength(ciphertext));
+              try {
+                xsalsa20.processBytes(
+                    ciphertext, MAC_SIZE, plaintext.length(), plaintext.array(), 0);
+              } catch (RuntimeException e) {
+                plaintext.close();
+                throw e;
+              }
+              return plaintext;
+            });
+  }
+
+  /**
+   * Decrypt a ciphertext using the given key and nonce into several plaintext buffers.
+   *
+   * <p>The remaining bytes of {@code src} are consumed, and the plaintext is written to each
+   * destination buffer in turn, filling each before moving on to the next. If the ciphertext is
+   * invalid, no buffers are modified. The source and destination buffers must not overlap.
+   *
+   * @param nonce a 24-byte nonce
+   * @param src the buffer containing the ciphertext
+   * @param dsts the buffers to which the plaintext will be written
+   * @return {@code true} if the ciphertext was valid and decrypted, or {@code false} if either the
+   *     key, nonce, or ciphertext was modified
+   * @throws IllegalArgumentException if {@code dsts} are too small to contain the plaintext
+   */
+  public boolean open(byte[] nonce, ByteBuffer src, ByteBuffer[] dsts) {
+    int len = Math.max(src.remaining() - MAC_SIZE, 0);
+    if (remaining(dsts) < len) {
+      throw new IllegalArgumentException("dsts are too small");
+    }
+
+    final Poly1305 poly1305 = new Poly1305();
+    final XSalsa20Engine xsalsa20 = init(false, nonce, poly1305);
 
     // extract mac
-    final byte[] presentedMAC = new byte[poly1305.getMacSize()];
-    System.arraycopy(
-        ciphertext, 0, presentedMAC, 0, Math.min(ciphertext.length, poly1305.getMacSize()));
+    final ByteBuffer in = src.duplicate();
+    final byte[] presentedMAC = new byte[MAC_SIZE];
+    in.get(presentedMAC, 0, Math.min(in.remaining(), MAC_SIZE));
+
+    // hash ciphertext
+    final byte[] scratch = scratch(len, src, dsts);
+    if (in.hasArray()) {
+      poly1305.update(in.array(), in.arrayOffset() + in.position(), len);
+    } else {
+      for (int n = len; n > 0; n -= scratch.length) {
+        final int chunk = Math.min(n, scratch.length);
+        in.get(scratch, 0, chunk);
+        poly1305.update(scratch, 0, chunk);
+      }
+    }
+    final byte[] calculatedMAC = new byte[MAC_SIZE];
+    poly1305.doFinal(calculatedMAC, 0);
 
     // compare macs
-    if (!MessageDigest.isEqual(calculatedMAC, presentedMAC)) {
-      return Optional.empty();
+    if (!Bytes.isEqual(calculatedMAC, presentedMAC)) {
+      return false;
     }
 
     // decrypt ciphertext
-    final byte[] plaintext = new byte[len];
-    xsalsa20.processBytes(ciphertext, poly1305.getMacSize(), plaintext.length, plaintext, 0);
-    return Optional.of(plaintext);
+    src.position(Math.min(src.position() + MAC_SIZE, src.limit()));
+    for (ByteBuffer dst : dsts) {
+      final int n = Math.min(len, dst.remaining());
+      crypt(xsalsa20, null, src, dst, n, scratch);
+      len -= n;
+    }
+    return true;
+  }
+
+  /**
+   * Encrypt a plaintext using the given key and nonce, authenticating but not encrypting the given
+   * associated data.
+   *
+   * <p>The MAC covers the associated data, the ciphertext, and both of their lengths, so the
+   * ciphertext can only be opened with the same associated data. The associated data is not
+   * included in the ciphertext. Unlike {@link #seal(byte[], byte[])}, the result is not compatible
+   * with NaCl's {@code secretbox}, even if the associated data is empty.
+   *
+   * @param nonce a 24-byte nonce (cf. {@link #nonce(byte[])}, {@link #nonce()})
+   * @param plaintext an arbitrary message
+   * @param associatedData arbitrary data to be authenticated but not encrypted
+   * @return the ciphertext
+   * @throws IllegalArgumentException if this box has a rejecting {@link NonceGuard} and {@code
+   *     nonce} is suspected of being reused
+   */
+  public byte[] sealWithAssociatedData(byte[] nonce, byte[] plaintext, byte[] associatedData) {
+    final Poly1305 poly1305 = new Poly1305();
+    final XSalsa20Engine xsalsa20 = init(true, nonce, poly1305);
+    checkNonce(nonce);
+
+    // encrypt plaintext
+    final byte[] out = new byte[plaintext.length + MAC_SIZE];
+    xsalsa20.processBytes(plaintext, 0, plaintext.length, out, MAC_SIZE);
+
+    // hash associated data and ciphertext and prepend mac to ciphertext
+    hash(poly1305, associatedData, out, 0, out.length);
+    poly1305.doFinal(out, 0);
+    return out;
+  }
+
+  /**
+   * Decrypt a ciphertext using the given key and nonce, authenticating the given associated data.
+   *
+   * @param nonce a 24-byte nonce
+   * @param ciphertext the encrypted message
+   * @param associatedData the data authenticated when the message was sealed
+   * @return an {@link Optional} of the original plaintext, or if either the key, nonce, ciphertext,
+   *     or associated data was modified, an empty {@link Optional}
+   * @see #sealWithAssociatedData(byte[], byte[], byte[])
+   */
+  public Optional<byte[]> openWithAssociatedData(
+      byte[] nonce, byte[] ciphertext, byte[] associatedData) {
+    return authenticate(nonce, ciphertext, associatedData)
+        .map(xsalsa20 -> decrypt(xsalsa20, ciphertext));
+  }
+
+  /**
+   * Decrypt a ciphertext with a counter-structured nonce, rejecting replayed messages.
+   *
+   * <p>The counter in the last 8 bytes of {@code nonce} is checked against {@code window} before
+   * the ciphertext is authenticated, and is only recorded in {@code window} if the ciphertext is
+   * authentic.
+   *
+   * @param nonce a 24-byte nonce whose last 8 bytes are a big-endian message counter
+   * @param ciphertext the encrypted message
+   * @param window the {@link ReplayWindow} for the sender of the message
+   * @return an {@link Optional} of the original plaintext, or if either the key, nonce, or
+   *     ciphertext was modified or the message is a replay, an empty {@link Optional}
+   */
+  public Optional<byte[]> open(byte[] nonce, byte[] ciphertext, ReplayWindow window) {
+    final long counter = ReplayWindow.counter(nonce);
+    if (window.isReplay(counter)) {
+      return Optional.empty();
+    }
+    final Optional<byte[]> plaintext = open(nonce, ciphertext);
+    if (plaintext.isPresent() && !window.accept(counter)) {
+      return Optional.empty();
+    }
+    return plaintext;
   }
 
   /**
@@ -176,12 +421,251 @@ public class SecretBox {
     final SecureRandom random = new SecureRandom();
     random.nextBytes(n1);
     random.nextBytes(n2);
+    return nonce(message, n1, n2);
+  }
 
-    final Blake2bDigest blake2b = new Blake2bDigest(key, NONCE_SIZE, n1, n2);
-    blake2b.update(message, message.length, 0);
+  // Hashes the message with the given salt and personalization, as in nonce(byte[]).
+  byte[] nonce(byte[] message, byte[] n1, byte[] n2) {
+    final byte[] k = acquireKey();
+    final Blake2bDigest blake2b;
+    try {
+      blake2b = new Blake2bDigest(k, NONCE_SIZE, n1, n2);
+    } finally {
+      releaseKey(k);
+    }
+    blake2b.update(message, 0, message.length);
 
     final byte[] nonce = new byte[NONCE_SIZE];
     blake2b.doFinal(nonce, 0);
     return nonce;
   }
+
+  /**
+   * Generates a misuse-resistant nonce like {@link #nonce(byte[])}, but hashes large messages in
+   * parallel.
+   *
+   * <p>Internally, this splits the message into four segments and hashes each with a keyed Blake2b
+   * instance, using the common fork-join pool for messages of 64KiB or more on machines with more
+   * than one CPU. The segment digests are then hashed with a Blake2b instance with the given key, a
+   * random 16-byte salt, and a random 16-byte personalization tag to produce the 24-byte nonce. The
+   * security properties are the same as those of {@link #nonce(byte[])}, but the two methods will
+   * not produce the same nonces.
+   *
+   * @param message the message to be encrypted
+   * @return a 24-byte nonce
+   */
+  public byte[] parallelNonce(byte[] message) {
+    final byte[] n1 = new byte[16];
+    final byte[] n2 = new byte[16];
+    final SecureRandom random = new SecureRandom();
+    random.nextBytes(n1);
+    random.nextBytes(n2);
+    return parallelNonce(message, n1, n2);
+  }
+
+  // Hashes the message with the given salt and personalization, as in parallelNonce(byte[]).
+  byte[] parallelNonce(byte[] message, byte[] n1, byte[] n2) {
+    final byte[] nonce = new byte[NONCE_SIZE];
+    final byte[] k = acquireKey();
+    try {
+      ParallelBlake2b.hash(nonce, k, n1, n2, message);
+    } finally {
+      releaseKey(k);
+    }
+    return nonce;
+  }
+
+  // Verifies and decrypts the len-byte ciphertext at off in buf, without copying it out first.
+  Optional<byte[]> open(byte[] nonce, byte[] buf, int off, int len) {
+    return authenticate(nonce, buf, off, len, null)
+        .map(xsalsa20 -> decrypt(xsalsa20, buf, off, len));
+  }
+
+  private Optional<XSalsa20Engine> authenticate(
+      byte[] nonce, byte[] ciphertext, byte[] associatedData) {
+    return authenticate(nonce, ciphertext, 0, ciphertext.length, associatedData);
+  }
+
+  // Returns an XSalsa20 instance ready to decrypt the len-byte ciphertext at off if its MAC is
+  // valid. If associatedData is null, the MAC is NaCl's; otherwise, it's the AEAD construction.
+  private Optional<XSalsa20Engine> authenticate(
+      byte[] nonce, byte[] ciphertext, int off, int len, byte[] associatedData) {
+    final Poly1305 poly1305 = new Poly1305();
+    final XSalsa20Engine xsalsa20 = init(false, nonce, poly1305);
+
+    // hash ciphertext
+    if (associatedData == null) {
+      poly1305.update(ciphertext, off + MAC_SIZE, plaintextLength(len));
+    } else {
+      hash(poly1305, associatedData, ciphertext, off, len);
+    }
+    final byte[] calculatedMAC = new byte[MAC_SIZE];
+    poly1305.doFinal(calculatedMAC, 0);
+
+    // extract mac
+    final byte[] presentedMAC = new byte[MAC_SIZE];
+    System.arraycopy(ciphertext, off, presentedMAC, 0, Math.min(len, MAC_SIZE));
+
+    // compare macs
+    if (!Bytes.isEqual(calculatedMAC, presentedMAC)) {
+      return Optional.empty();
+    }
+    return Optional.of(xsalsa20);
+  }
+
+  private static byte[] decrypt(XSalsa20Engine xsalsa20, byte[] ciphertext) {
+    return decrypt(xsalsa20, ciphertext, 0, ciphertext.length);
+  }
+
+  private static byte[] decrypt(XSalsa20Engine xsalsa20, byte[] ciphertext, int off, int len) {
+    final byte[] plaintext = new byte[plaintextLength(len)];
+    xsalsa20.processBytes(ciphertext, off + MAC_SIZE, plaintext.length, plaintext, 0);
+    return plaintext;
+  }
+
+  // Returns the Poly1305 subkey followed by len bytes of XSalsa20 keystream for the given nonce.
+  byte[] keystream(byte[] nonce, int len) {
+    final XSalsa20Engine xsalsa20 = xsalsa20(true, nonce);
+    final byte[] keystream = new byte[Keys.KEY_LEN + len];
+    xsalsa20.processBytes(keystream, 0, keystream.length, keystream, 0);
+    return keystream;
+  }
+
+  // Decrypts len bytes of plaintext, starting at offset, by seeking XSalsa20 past the subkey.
+  void decrypt(byte[] nonce, byte[] ciphertext, int offset, byte[] out, int outOff, int len) {
+    final XSalsa20Engine xsalsa20 = xsalsa20(false, nonce);
+    xsalsa20.seekTo(Keys.KEY_LEN + (long) offset);
+    xsalsa20.processBytes(ciphertext, MAC_SIZE + offset, len, out, outOff);
+  }
+
+  // Hashes the associated data and ciphertext as in RFC 8439: each is zero-padded to a multiple of
+  // 16 bytes, followed by their lengths as 64-bit little-endian integers.
+  private static void hash(
+      Poly1305 poly1305, byte[] associatedData, byte[] ciphertext, int off, int ctLen) {
+    final int len = plaintextLength(ctLen);
+    poly1305.update(associatedData, 0, associatedData.length);
+    poly1305.update(PADDING, 0, padding(associatedData.length));
+    poly1305.update(ciphertext, off + MAC_SIZE, len);
+    poly1305.update(PADDING, 0, padding(len));
+    final byte[] lengths = new byte[16];
+    Pack.longToLittleEndian(associatedData.length, lengths, 0);
+    Pack.longToLittleEndian(len, lengths, 8);
+    poly1305.update(lengths, 0, lengths.length);
+  }
+
+  private static int padding(int len) {
+    return (16 - (len % 16)) % 16;
+  }
+
+  // Returns an initialized XSalsa20 instance, initializing Poly1305 with the generated subkey.
+  private XSalsa20Engine init(boolean forEncryption, byte[] nonce, Poly1305 poly1305) {
+    final XSalsa20Engine xsalsa20 = xsalsa20(forEncryption, nonce);
+
+    // generate Poly1305 subkey
+    final byte[] sk = new byte[Keys.KEY_LEN];
+    xsalsa20.processBytes(sk, 0, Keys.KEY_LEN, sk, 0);
+    poly1305.init(new KeyParameter(sk));
+    return xsalsa20;
+  }
+
+  private XSalsa20Engine xsalsa20(boolean forEncryption, byte[] nonce) {
+    final XSalsa20Engine xsalsa20 = new XSalsa20Engine();
+    final byte[] k = acquireKey();
+    try {
+      xsalsa20.init(forEncryption, new ParametersWithIV(new KeyParameter(k), nonce));
+    } finally {
+      releaseKey(k);
+    }
+    return xsalsa20;
+  }
+
+  // Returns the key, copying it from the slab if the box has one. Must be followed by releaseKey.
+  private byte[] acquireKey() {
+    return slab == null ? key : slab.get(slot);
+  }
+
+  // Wipes the key if it was copied from the slab.
+  private void releaseKey(byte[] k) {
+    if (k != key) {
+      Arrays.fill(k, (byte) 0);
+    }
+  }
+
+  private static byte[] copyKey(byte[] secretKey) {
+    if (secretKey.length != Keys.KEY_LEN) {
+      throw new IllegalArgumentException("secretKey must be 32 bytes long");
+    }
+    return Arrays.copyOf(secretKey, secretKey.length);
+  }
+
+  private void checkNonce(byte[] nonce) {
+    if (guard != null && !guard.add(nonce) && guard.rejects()) {
+      throw new IllegalArgumentException("nonce is suspected of being reused");
+    }
+  }
+
+  // XORs len bytes from in with the keystream into out, hashing the output if poly1305 is given.
+  private static void crypt(
+      XSalsa20Engine xsalsa20,
+      Poly1305 poly1305,
+      ByteBuffer in,
+      ByteBuffer out,
+      int len,
+      byte[] scratch) {
+    if (in.hasArray() && out.hasArray()) {
+      final int outOff = out.arrayOffset() + out.position();
+      xsalsa20.processBytes(in.array(), in.arrayOffset() + in.position(), len, out.array(), outOff);
+      if (poly1305 != null) {
+        poly1305.update(out.array(), outOff, len);
+      }
+      in.position(in.position() + len);
+      out.position(out.position() + len);
+      return;
+    }
+
+    for (int n = len; n > 0; n -= scratch.length) {
+      final int chunk = Math.min(n, scratch.length);
+      in.get(scratch, 0, chunk);
+      xsalsa20.processBytes(scratch, 0, chunk, scratch, 0);
+      if (poly1305 != null) {
+        poly1305.update(scratch, 0, chunk);
+      }
+      out.put(scratch, 0, chunk);
+    }
+  }
+
+  // Returns a buffer for copying through non-array buffers, or null if none are needed.
+  private static byte[] scratch(int len, ByteBuffer buffer, ByteBuffer[] buffers) {
+    boolean arrays = buffer.hasArray();
+    for (ByteBuffer b : buffers) {
+      arrays &= b.hasArray();
+    }
+    return arrays ? null : new byte[Math.max(1, Math.min(len, SCRATCH_SIZE))];
+  }
+
+  private static int remaining(ByteBuffer[] buffers) {
+    long n = 0;
+    for (ByteBuffer b : buffers) {
+      n += b.remaining();
+    }
+    if (n > Integer.MAX_VALUE - MAC_SIZE) {
+      throw new IllegalArgumentException("buffers are too large");
+    }
+    return (int) n;
+  }
+
+  private static int plaintextLength(byte[] ciphertext) {
+    return plaintextLength(ciphertext.length);
+  }
+
+  private static int plaintextLength(int ciphertextLength) {
+    return Math.max(ciphertextLength - MAC_SIZE, 0);
+  }
+
+  // Overwrites the key. The box must not be used afterwards. Slab keys are wiped by the slab.
+  void wipe() {
+    if (key != null) {
+      Arrays.fill(key, (byte) 0);
+    }
+  }
 }
@@ -54,7 +54,29 @@ public class SimpleBox {
    * @return the ciphertext
    */
   public byte[] seal(byte[] plaintext) {
-    final byte[] nonce = box.nonce(plaintext);
+    return seal(box.nonce(plaintext), plaintext);
+  }
+
+  /**
+   * Encrypt the plaintext with the given key, generating the nonce with {@link
+   * SecretBox#parallelNonce(byte[])}.
+   *
+   * <p>This is intended to be faster than {@link #seal(byte[])} for large messages on multi-core
+   * machines. Messages too small to benefit, or sealed on a single-CPU machine, use {@link
+   * SecretBox#nonce(byte[])} instead, since the tree hash only adds overhead there. The output can
+   * be decrypted with {@link #open(byte[])}.
+   *
+   * @param plaintext any arbitrary bytes
+   * @return the ciphertext
+   */
+  public byte[] sealParallel(byte[] plaintext) {
+    if (!ParallelBlake2b.isParallel(plaintext.length)) {
+      return seal(plaintext);
+    }
+    return seal(box.parallelNonce(plaintext), plaintext);
+  }
+
+  private byte[] seal(byte[] nonce, byte[] plaintext) {
     final byte[] ciphertext = box.seal(nonce, plaintext);
     final byte[] combined = new byte[nonce.length + ciphertext.length];
     System.arraycopy(nonce, 0, combined, 0, nonce.length);
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Byte array primitives for HSalsa20, MAC comparison, nonce hashing, and precomputed keystream.
+ *
+ * <p>XSalsa20 and Poly1305 themselves come from Bouncy Castle, so the cipher's own keystream XOR
+ * can't be versioned here.
+ *
+ * <p>This is the Java 9+ implementation, which uses {@link VarHandle} views to read and write whole
+ * words instead of single bytes.
+ */
+class Bytes {
+
+  private static final VarHandle INT_LE =
+      MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle LONG_LE =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private Bytes() {
+    // singleton
+  }
+
+  static int getIntLE(byte[] b, int off) {
+    return (int) INT_LE.get(b, off);
+  }
+
+  static void putIntLE(byte[] b, int off, int v) {
+    INT_LE.set(b, off, v);
+  }
+
+  static long getLongLE(byte[] b, int off) {
+    return (long) LONG_LE.get(b, off);
+  }
+
+  /**
+   * Compares two arrays in constant time.
+   *
+   * <p>{@link java.util.Arrays#mismatch(byte[], byte[])} returns early and so can't be used here.
+   */
+  static boolean isEqual(byte[] a, byte[] b) {
+    if (a.length != b.length) {
+      return false;
+    }
+
+    long d = 0;
+    int i = 0;
+    for (; i <= a.length - Long.BYTES; i += Long.BYTES) {
+      d |= (long) LONG_LE.get(a, i) ^ (long) LONG_LE.get(b, i);
+    }
+    for (; i < a.length; i++) {
+      d |= a[i] ^ b[i];
+    }
+    return d == 0;
+  }
+
+  /** XORs {@code len} bytes of {@code in} with {@code keystream} into {@code out}. */
+  static void xor(
+      byte[] in, int inOff, byte[] keystream, int ksOff, byte[] out, int outOff, int len) {
+    int i = 0;
+    for (; i <= len - Long.BYTES; i += Long.BYTES) {
+      LONG_LE.set(
+          out,
+          outOff + i,
+          (long) LONG_LE.get(in, inOff + i) ^ (long) LONG_LE.get(keystream, ksOff + i));
+    }
+    for (; i < len; i++) {
+      out[outOff + i] = (byte) (in[inOff + i] ^ keystream[ksOff + i]);
+    }
+  }
+}
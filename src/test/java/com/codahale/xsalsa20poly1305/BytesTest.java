@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.bouncycastle.util.Pack;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class BytesTest implements WithQuickTheories {
+
+  @Test
+  void implementation() {
+    // set by the surefire execution which tests the Java 9+ classes
+    final boolean versioned = Boolean.getBoolean("bytes.versioned");
+    assertThat(Bytes.class.getDeclaredFields())
+        .extracting(f -> f.getType().getName())
+        .matches(types -> types.contains("java.lang.invoke.VarHandle") == versioned);
+  }
+
+  @Test
+  void ints() {
+    qt().forAll(byteArrays(4, 4), integers().all())
+        .check(
+            (b, v) -> {
+              final byte[] out = new byte[4];
+              Bytes.putIntLE(out, 0, v);
+              return Bytes.getIntLE(b, 0) == Pack.littleEndianToInt(b, 0)
+                  && Arrays.equals(out, Pack.intToLittleEndian(v));
+            });
+  }
+
+  @Test
+  void longValues() {
+    qt().forAll(byteArrays(8, 8))
+        .check(b -> Bytes.getLongLE(b, 0) == Pack.littleEndianToLong(b, 0));
+  }
+
+  @Test
+  void isEqual() {
+    qt().forAll(byteArrays(0, 40), byteArrays(0, 40))
+        .check((a, b) -> Bytes.isEqual(a, b) == MessageDigest.isEqual(a, b));
+    qt().forAll(byteArrays(0, 40)).check(a -> Bytes.isEqual(a, a.clone()));
+  }
+
+  @Test
+  void xor() {
+    qt().forAll(byteArrays(0, 100), byteArrays(100, 100))
+        .check(
+            (in, keystream) -> {
+              final byte[] out = new byte[in.length];
+              Bytes.xor(in, 0, keystream, 0, out, 0, in.length);
+              Bytes.xor(out, 0, keystream, 0, out, 0, in.length);
+              return Arrays.equals(in, out);
+            });
+  }
+}
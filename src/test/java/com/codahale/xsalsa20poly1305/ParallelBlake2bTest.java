@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class ParallelBlake2bTest implements WithQuickTheories {
+
+  private static final byte[] SALT = new byte[16];
+  private static final byte[] PERSONALIZATION = new byte[16];
+
+  @Test
+  void deterministic() {
+    qt().forAll(byteArrays(32, 32), byteArrays(0, 4096))
+        .check((key, message) -> Arrays.equals(hash(key, message), hash(key, message.clone())));
+  }
+
+  @Test
+  void everyByteMatters() {
+    qt().forAll(byteArrays(32, 32), byteArrays(4, 4096), integers().allPositive())
+        .check(
+            (key, message, v) -> {
+              final byte[] h = hash(key, message);
+              message[v % message.length] ^= 1;
+              return !Arrays.equals(h, hash(key, message));
+            });
+  }
+
+  @Test
+  void everyLeafMatters() {
+    final byte[] key = new byte[32];
+    final byte[] message = new byte[1024 * 1024];
+    final byte[] h = hash(key, message);
+    for (int i = 0; i < ParallelBlake2b.LEAVES; i++) {
+      final int off = message.length / ParallelBlake2b.LEAVES * i + 100;
+      message[off] ^= 1;
+      assertThat(hash(key, message)).isNotEqualTo(h);
+      message[off] ^= 1;
+    }
+  }
+
+  @Test
+  void sequentialMatchesParallel() {
+    qt().forAll(byteArrays(32, 32), byteArrays(0, 4096))
+        .check(
+            (key, message) -> {
+              final byte[] a = new byte[24];
+              final byte[] b = new byte[24];
+              ParallelBlake2b.hash(a, key, SALT, PERSONALIZATION, message, false);
+              ParallelBlake2b.hash(b, key, SALT, PERSONALIZATION, message, true);
+              return Arrays.equals(a, b);
+            });
+
+    final byte[] key = new byte[32];
+    final byte[] message = new byte[1024 * 1024 + 3];
+    Arrays.fill(message, (byte) 7);
+    final byte[] a = new byte[24];
+    final byte[] b = new byte[24];
+    ParallelBlake2b.hash(a, key, SALT, PERSONALIZATION, message, false);
+    ParallelBlake2b.hash(b, key, SALT, PERSONALIZATION, message, true);
+    assertThat(a).isEqualTo(b);
+  }
+
+  @Test
+  void nonceDependsOnMessage() {
+    qt().forAll(byteArrays(32, 32), byteArrays(1, 4096), integers().allPositive())
+        .check(
+            (key, message, v) -> {
+              final SecretBox box = new SecretBox(key);
+              final byte[] other = message.clone();
+              other[v % other.length] ^= 1;
+              return Arrays.equals(
+                      box.nonce(message, SALT, PERSONALIZATION),
+                      box.nonce(message.clone(), SALT, PERSONALIZATION))
+                  && !Arrays.equals(
+                      box.nonce(message, SALT, PERSONALIZATION),
+                      box.nonce(other, SALT, PERSONALIZATION))
+                  && !Arrays.equals(
+                      box.parallelNonce(message, SALT, PERSONALIZATION),
+                      box.parallelNonce(other, SALT, PERSONALIZATION));
+            });
+  }
+
+  private static byte[] hash(byte[] key, byte[] message) {
+    final byte[] out = new byte[24];
+    ParallelBlake2b.hash(out, key, SALT, PERSONALIZATION, message);
+    return out;
+  }
+}
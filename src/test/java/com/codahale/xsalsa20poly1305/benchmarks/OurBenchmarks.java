@@ -25,6 +25,7 @@ import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
 import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
 @BenchmarkMode(Mode.AverageTime)
@@ -32,15 +33,22 @@ import org.openjdk.jmh.annotations.State;
 @State(Scope.Benchmark)
 public class OurBenchmarks {
 
-  @Param({"100", "1024", "10240"})
+  @Param({"100", "1024", "10240", "1048576", "4194304"})
   private int size = 100;
 
   private final SecretBox box = new SecretBox(new byte[32]);
   private final SimpleBox simpleBox = new SimpleBox(new byte[32]);
   private final byte[] nonce = new byte[24];
-  private final byte[] plaintext = new byte[size];
-  private final byte[] boxCiphertext = box.seal(nonce, plaintext);
-  private final byte[] simpleCiphertext = simpleBox.seal(plaintext);
+  private byte[] plaintext;
+  private byte[] boxCiphertext;
+  private byte[] simpleCiphertext;
+
+  @Setup
+  public void setup() {
+    this.plaintext = new byte[size];
+    this.boxCiphertext = box.seal(nonce, plaintext);
+    this.simpleCiphertext = simpleBox.seal(plaintext);
+  }
 
   @Benchmark
   public byte[] seal() {
@@ -57,6 +65,11 @@ public class OurBenchmarks {
     return simpleBox.seal(plaintext);
   }
 
+  @Benchmark
+  public byte[] simpleSealParallel() {
+    return simpleBox.sealParallel(plaintext);
+  }
+
   @Benchmark
   public Optional<byte[]> simpleOpen() {
     return simpleBox.open(simpleCiphertext);
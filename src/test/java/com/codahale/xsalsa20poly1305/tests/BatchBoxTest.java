@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.xsalsa20poly1305.BatchBox;
+import com.codahale.xsalsa20poly1305.BatchWriter;
+import java.util.Arrays;
+import org.bouncycastle.util.Pack;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class BatchBoxTest implements WithQuickTheories {
+
+  @Test
+  void roundTrip() {
+    qt().forAll(byteArrays(32, 32), lists().of(byteArrays(0, 256)).ofSizeBetween(0, 50))
+        .check(
+            (key, records) -> {
+              final BatchBox box = new BatchBox(key);
+              final BatchWriter writer = box.writer();
+              records.forEach(writer::append);
+              final byte[] batch = writer.toByteArray();
+              if (box.count(batch) != records.size()
+                  || batch.length != 44 + records.stream().mapToInt(r -> r.length + 20).sum()) {
+                return false;
+              }
+              for (int i = records.size() - 1; i >= 0; i--) {
+                final byte[] record = records.get(i);
+                if (!box.open(batch, i).map(r -> Arrays.equals(r, record)).orElse(false)) {
+                  return false;
+                }
+              }
+              return !box.open(batch, records.size()).isPresent()
+                  && !box.open(batch, -1).isPresent();
+            });
+  }
+
+  @Test
+  void incrementalAppends() {
+    final BatchBox box = new BatchBox(new byte[32]);
+    final BatchWriter writer = box.writer();
+    assertThat(writer.append(new byte[] {1})).isEqualTo(0);
+    final byte[] first = writer.toByteArray();
+    assertThat(writer.append(new byte[] {2, 2})).isEqualTo(1);
+    final byte[] second = writer.toByteArray();
+
+    assertThat(box.count(first)).isEqualTo(1);
+    assertThat(box.count(second)).isEqualTo(2);
+    assertThat(box.open(first, 0)).contains(new byte[] {1});
+    assertThat(box.open(second, 0)).contains(new byte[] {1});
+    assertThat(box.open(second, 1)).contains(new byte[] {2, 2});
+  }
+
+  @Test
+  void badRecord() {
+    qt().forAll(byteArrays(32, 32), lists().of(byteArrays(1, 64)).ofSizeBetween(2, 10))
+        .check(
+            (key, records) -> {
+              final BatchBox box = new BatchBox(key);
+              final BatchWriter writer = box.writer();
+              records.forEach(writer::append);
+              final byte[] batch = writer.toByteArray();
+              batch[24] ^= 1;
+              return !box.open(batch, 0).isPresent() && box.open(batch, 1).isPresent();
+            });
+  }
+
+  @Test
+  void swappedRecords() {
+    final BatchBox box = new BatchBox(new byte[32]);
+    final BatchWriter writer = box.writer();
+    writer.append(new byte[] {1});
+    writer.append(new byte[] {2});
+    final byte[] batch = writer.toByteArray();
+    final byte[] swapped = batch.clone();
+    System.arraycopy(batch, 24, swapped, 41, 17);
+    System.arraycopy(batch, 41, swapped, 24, 17);
+    assertThat(box.open(swapped, 0)).isEmpty();
+    assertThat(box.open(swapped, 1)).isEmpty();
+  }
+
+  @Test
+  void truncatedBatch() {
+    final BatchBox box = new BatchBox(new byte[32]);
+    final BatchWriter writer = box.writer();
+    writer.append(new byte[] {1});
+    writer.append(new byte[] {2});
+    final byte[] batch = writer.toByteArray();
+
+    // drop the last record and its offset, and claim a count of one
+    final byte[] truncated = new byte[batch.length - 21];
+    System.arraycopy(batch, 0, truncated, 0, 41);
+    System.arraycopy(batch, 58, truncated, 41, 4);
+    Pack.intToBigEndian(1, truncated, 45);
+    System.arraycopy(batch, 70, truncated, 49, 16);
+    assertThat(box.count(truncated)).isEqualTo(-1);
+    assertThat(box.open(truncated, 0)).isEmpty();
+
+    final byte[] recounted = batch.clone();
+    Pack.intToBigEndian(1, recounted, 66);
+    assertThat(box.count(recounted)).isEqualTo(-1);
+  }
+
+  @Test
+  void malformedBatch() {
+    qt().forAll(byteArrays(32, 32), byteArrays(0, 100), integers().between(0, 10))
+        .check((key, batch, i) -> !new BatchBox(key).open(batch, i).isPresent());
+  }
+
+  @Test
+  void emptyBatch() {
+    final BatchBox box = new BatchBox(new byte[32]);
+    final byte[] batch = box.writer().toByteArray();
+    assertThat(batch).hasSize(44);
+    assertThat(box.count(batch)).isZero();
+    assertThat(box.count(Arrays.copyOf(batch, 20))).isEqualTo(-1);
+  }
+}
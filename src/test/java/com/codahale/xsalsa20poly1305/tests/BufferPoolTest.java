@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.xsalsa20poly1305.BufferPool;
+import com.codahale.xsalsa20poly1305.PooledBuffer;
+import com.codahale.xsalsa20poly1305.SecretBox;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class BufferPoolTest implements WithQuickTheories {
+
+  @Test
+  void roundTrip() {
+    final BufferPool pool = new BufferPool();
+    qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(1, 4096))
+        .check(
+            (key, nonce, message) -> {
+              final SecretBox box = new SecretBox(key);
+              try (PooledBuffer c = box.seal(nonce, message, pool)) {
+                if (!Arrays.equals(c.toByteArray(), box.seal(nonce, message))) {
+                  return false;
+                }
+                final Optional<PooledBuffer> p = box.open(nonce, c.toByteArray(), pool);
+                try (PooledBuffer plaintext = p.orElseThrow(AssertionError::new)) {
+                  return Arrays.equals(message, plaintext.toByteArray());
+                }
+              }
+            });
+    assertThat(pool.hits()).isPositive();
+  }
+
+  @Test
+  void badCiphertext() {
+    final BufferPool pool = new BufferPool();
+    final SecretBox box = new SecretBox(new byte[32]);
+    final byte[] nonce = box.nonce();
+    final byte[] ciphertext = box.seal(nonce, new byte[100]);
+    ciphertext[50] ^= 1;
+    assertThat(box.open(nonce, ciphertext, pool)).isEmpty();
+    assertThat(pool.misses()).isZero();
+  }
+
+  @Test
+  void reusesAndWipesBuffers() {
+    final BufferPool pool = new BufferPool();
+    final PooledBuffer a = pool.acquire(100);
+    assertThat(a.array()).hasSize(128);
+    final byte[] array = a.array();
+    // writes past the requested length are wiped too
+    Arrays.fill(array, (byte) 1);
+    a.close();
+    assertThat(array).containsOnly(0);
+    assertThatThrownBy(a::array).isInstanceOf(IllegalStateException.class);
+
+    try (PooledBuffer b = pool.acquire(128)) {
+      assertThat(b.array()).isSameAs(array);
+    }
+    assertThat(pool.hits()).isEqualTo(1);
+    assertThat(pool.misses()).isEqualTo(1);
+    assertThat(pool.hitRate()).isEqualTo(0.5);
+  }
+
+  @Test
+  void unpooledBuffers() {
+    final BufferPool pool = new BufferPool(1024, 0, 0, 1 << 20);
+    final PooledBuffer a = pool.acquire(100);
+    final byte[] array = a.array();
+    a.close();
+    try (PooledBuffer b = pool.acquire(100)) {
+      assertThat(b.array()).isNotSameAs(array);
+    }
+    assertThat(pool.misses()).isEqualTo(2);
+  }
+
+  @Test
+  void retainedBytesAreBounded() {
+    final BufferPool pool = new BufferPool(1024, 16, 16, 256);
+    final PooledBuffer a = pool.acquire(128);
+    final PooledBuffer b = pool.acquire(128);
+    final PooledBuffer c = pool.acquire(128);
+    a.close();
+    b.close();
+    assertThat(pool.retainedBytes()).isEqualTo(256);
+    c.close();
+    assertThat(pool.retainedBytes()).isEqualTo(256);
+    try (PooledBuffer d = pool.acquire(128)) {
+      assertThat(pool.retainedBytes()).isEqualTo(128);
+    }
+  }
+
+  @Test
+  void largeBuffers() {
+    final BufferPool pool = new BufferPool(1024, 1, 1, 1 << 20);
+    final PooledBuffer a = pool.acquire(2000);
+    final byte[] array = a.array();
+    assertThat(array).hasSize(2000);
+    a.close();
+    try (PooledBuffer b = pool.acquire(2000)) {
+      assertThat(b.array()).isNotSameAs(array);
+    }
+    assertThat(pool.misses()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.xsalsa20poly1305.EnvelopeBox;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class EnvelopeBoxTest implements WithQuickTheories {
+
+  @Test
+  void roundTrip() {
+    qt().forAll(byteArrays(32, 32), byteArrays(0, 4096))
+        .check(
+            (key, message) -> {
+              final EnvelopeBox box = new EnvelopeBox(key);
+              return box.open(box.seal(message)).map(a -> Arrays.equals(message, a)).orElse(false);
+            });
+  }
+
+  @Test
+  void badMasterKey() {
+    qt().forAll(byteArrays(32, 32), byteArrays(32, 32), byteArrays(0, 100))
+        .assuming((keyA, keyB, message) -> !Arrays.equals(keyA, keyB))
+        .check(
+            (keyA, keyB, message) ->
+                !new EnvelopeBox(keyB).open(new EnvelopeBox(keyA).seal(message)).isPresent());
+  }
+
+  @Test
+  void badEnvelope() {
+    qt().forAll(byteArrays(32, 32), byteArrays(1, 100), integers().allPositive())
+        .check(
+            (key, message, v) -> {
+              final EnvelopeBox box = new EnvelopeBox(key);
+              final byte[] envelope = box.seal(message);
+              envelope[v % envelope.length] ^= (byte) (1 << (v % 8));
+              return !box.open(envelope).isPresent();
+            });
+  }
+
+  @Test
+  void shortEnvelope() {
+    qt().forAll(byteArrays(32, 32), byteArrays(0, 95))
+        .check((key, envelope) -> !new EnvelopeBox(key).open(envelope).isPresent());
+  }
+
+  @Test
+  void dataKeyMessageLimit() {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32], 10, Duration.ofMinutes(1), 2, 1000);
+    final byte[] a = box.seal(new byte[10]);
+    final byte[] b = box.seal(new byte[10]);
+    final byte[] c = box.seal(new byte[10]);
+    assertThat(Arrays.copyOf(a, 72)).isEqualTo(Arrays.copyOf(b, 72));
+    assertThat(Arrays.copyOf(b, 72)).isNotEqualTo(Arrays.copyOf(c, 72));
+  }
+
+  @Test
+  void dataKeyByteLimit() {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32], 10, Duration.ofMinutes(1), 100, 100);
+    final byte[] a = box.seal(new byte[60]);
+    final byte[] b = box.seal(new byte[60]);
+    final byte[] c = box.seal(new byte[200]);
+    final byte[] d = box.seal(new byte[10]);
+    assertThat(Arrays.copyOf(a, 72)).isNotEqualTo(Arrays.copyOf(b, 72));
+    assertThat(Arrays.copyOf(b, 72)).isNotEqualTo(Arrays.copyOf(c, 72));
+    assertThat(Arrays.copyOf(c, 72)).isNotEqualTo(Arrays.copyOf(d, 72));
+    assertThat(box.open(c)).contains(new byte[200]);
+  }
+
+  @Test
+  void concurrentRotation() throws Exception {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32], 0, Duration.ofMinutes(1), 3, 1000);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<byte[]>> envelopes = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        final byte[] message = new byte[] {(byte) i};
+        envelopes.add(executor.submit(() -> box.seal(message)));
+      }
+      for (int i = 0; i < envelopes.size(); i++) {
+        assertThat(box.open(envelopes.get(i).get())).contains(new byte[] {(byte) i});
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void badTtl() {
+    assertThatThrownBy(() -> new EnvelopeBox(new byte[32], 1, Duration.ofSeconds(-1), 1, 1))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new EnvelopeBox(new byte[32], 1, Duration.ofDays(1L << 40), 1, 1))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void cachesDataKeys() {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32], 2, Duration.ofMinutes(1), 1, 1000);
+    final byte[] a = box.seal(new byte[] {1});
+    final byte[] b = box.seal(new byte[] {2});
+    final byte[] c = box.seal(new byte[] {3});
+    assertThat(box.cachedKeys()).isZero();
+
+    assertThat(box.open(a)).contains(new byte[] {1});
+    assertThat(box.open(a)).contains(new byte[] {1});
+    assertThat(box.cachedKeys()).isEqualTo(1);
+    assertThat(box.open(b)).contains(new byte[] {2});
+    assertThat(box.open(c)).contains(new byte[] {3});
+    assertThat(box.cachedKeys()).isEqualTo(2);
+    assertThat(box.open(a)).contains(new byte[] {1});
+    assertThat(box.cachedKeys()).isEqualTo(2);
+  }
+
+  @Test
+  void expiredDataKeys() {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32], 10, Duration.ZERO, 10, 1000);
+    final byte[] a = box.seal(new byte[] {1});
+    assertThat(box.open(a)).contains(new byte[] {1});
+    assertThat(box.open(a)).contains(new byte[] {1});
+    assertThat(box.cachedKeys()).isLessThanOrEqualTo(1);
+  }
+
+  @Test
+  void sweepsExpiredDataKeys() throws InterruptedException {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32], 10, Duration.ofSeconds(1), 1, 1000);
+    final byte[] a = box.seal(new byte[] {1});
+    final byte[] b = box.seal(new byte[] {2});
+    assertThat(box.open(a)).contains(new byte[] {1});
+    Thread.sleep(600);
+    assertThat(box.open(b)).contains(new byte[] {2});
+    assertThat(box.cachedKeys()).isEqualTo(2);
+
+    // a cache hit on b sweeps the expired key for a
+    Thread.sleep(600);
+    assertThat(box.open(b)).contains(new byte[] {2});
+    assertThat(box.cachedKeys()).isEqualTo(1);
+  }
+
+  @Test
+  void close() {
+    final EnvelopeBox box = new EnvelopeBox(new byte[32]);
+    final byte[] a = box.seal(new byte[] {1});
+    assertThat(box.open(a)).contains(new byte[] {1});
+    assertThat(box.cachedKeys()).isEqualTo(1);
+
+    box.close();
+    assertThat(box.cachedKeys()).isZero();
+    assertThatThrownBy(() -> box.seal(new byte[] {2})).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> box.open(a)).isInstanceOf(IllegalStateException.class);
+  }
+}
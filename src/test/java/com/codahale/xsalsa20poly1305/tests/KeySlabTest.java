@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static com.codahale.xsalsa20poly1305.tests.Generators.privateKeys;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.xsalsa20poly1305.KeySlab;
+import com.codahale.xsalsa20poly1305.Keys;
+import com.codahale.xsalsa20poly1305.SecretBox;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class KeySlabTest implements WithQuickTheories {
+
+  @Test
+  void secretKeys() {
+    try (KeySlab slab = new KeySlab(1000)) {
+      qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(1, 4096))
+          .check(
+              (key, nonce, message) -> {
+                final SecretBox heap = new SecretBox(key);
+                final SecretBox box = slab.box(slab.add(key));
+                final byte[] ciphertext = box.seal(nonce, message);
+                final byte[] n = box.nonce(message);
+                return Arrays.equals(ciphertext, heap.seal(nonce, message))
+                    && Arrays.equals(message, box.open(nonce, ciphertext).orElse(null))
+                    && Arrays.equals(message, heap.open(n, box.seal(n, message)).orElse(null));
+              });
+    }
+  }
+
+  @Test
+  void sharedSecrets() {
+    try (KeySlab slab = new KeySlab(1000)) {
+      qt().forAll(privateKeys(), privateKeys(), byteArrays(24, 24), byteArrays(1, 4096))
+          .check(
+              (privateKeyA, privateKeyB, nonce, message) -> {
+                final byte[] publicKeyB = Keys.generatePublicKey(privateKeyB);
+                final SecretBox heap = new SecretBox(publicKeyB, privateKeyA);
+                final SecretBox box = slab.box(slab.add(publicKeyB, privateKeyA));
+                return Arrays.equals(heap.seal(nonce, message), box.seal(nonce, message));
+              });
+    }
+  }
+
+  @Test
+  void fullAndClosed() {
+    final KeySlab slab = new KeySlab(2);
+    final int a = slab.add(new byte[32]);
+    final int b = slab.add(new byte[32]);
+    assertThat(a).isZero();
+    assertThat(b).isEqualTo(1);
+    assertThat(slab.size()).isEqualTo(slab.capacity());
+    assertThatThrownBy(() -> slab.add(new byte[32])).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> slab.add(new byte[31])).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> slab.box(2)).isInstanceOf(IllegalArgumentException.class);
+
+    final SecretBox box = slab.box(a);
+    final byte[] nonce = box.nonce();
+    final byte[] ciphertext = box.seal(nonce, new byte[10]);
+    slab.close();
+    assertThatThrownBy(() -> box.open(nonce, ciphertext)).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> slab.box(a)).isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -17,11 +17,14 @@ package com.codahale.xsalsa20poly1305.tests;
 
 import static com.codahale.xsalsa20poly1305.tests.Generators.privateKeys;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.codahale.xsalsa20poly1305.Keys;
 import com.codahale.xsalsa20poly1305.SecretBox;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 import org.quicktheories.WithQuickTheories;
 
@@ -47,6 +50,35 @@ class KeysTest implements WithQuickTheories {
         .isEqualTo(Keys.sharedSecret(publicKeyA, privateKeyB));
   }
 
+  @Test
+  void generateSecretKeys() {
+    final byte[] keys = Keys.generateSecretKeys(100);
+    assertThat(keys).hasSize(3200);
+    assertThat(
+            IntStream.range(0, 100)
+                .mapToObj(i -> ByteBuffer.wrap(keys, i * 32, 32))
+                .distinct()
+                .count())
+        .isEqualTo(100);
+    assertThat(Keys.generateSecretKeys(0)).isEmpty();
+    assertThatThrownBy(() -> Keys.generateSecretKeys(-1))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void generateKeyPairs() {
+    final byte[] privateKeys = Keys.generatePrivateKeys(100);
+    final byte[] publicKeys = Keys.generatePublicKeys(privateKeys);
+    for (int i = 0; i < 100; i++) {
+      final byte[] privateKey = Arrays.copyOfRange(privateKeys, i * 32, (i + 1) * 32);
+      assertThat(Generators.clamp(privateKey.clone())).isEqualTo(privateKey);
+      assertThat(Arrays.copyOfRange(publicKeys, i * 32, (i + 1) * 32))
+          .isEqualTo(Keys.generatePublicKey(privateKey));
+    }
+    assertThatThrownBy(() -> Keys.generatePublicKeys(new byte[33]))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
   @Test
   void sharedSecrets() {
     qt().forAll(privateKeys(), privateKeys())
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.xsalsa20poly1305.NonceGuard;
+import com.codahale.xsalsa20poly1305.SecretBox;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class NonceGuardTest implements WithQuickTheories {
+
+  @Test
+  void detectsReuse() {
+    qt().forAll(byteArrays(24, 24))
+        .check(
+            nonce -> {
+              final NonceGuard guard = new NonceGuard(1000, 0.001, true);
+              return guard.add(nonce) && !guard.add(nonce) && guard.suspectedReuses() == 1;
+            });
+  }
+
+  @Test
+  void falsePositives() {
+    final NonceGuard guard = new NonceGuard(10_000, 0.01, true);
+    final SecretBox box = new SecretBox(new byte[32]);
+    int falsePositives = 0;
+    for (int i = 0; i < 30_000; i++) {
+      // only count once both filters are in use
+      if (!guard.add(box.nonce()) && i >= 10_000) {
+        falsePositives++;
+      }
+    }
+    assertThat(falsePositives).isLessThan(220);
+    assertThat(guard.checked()).isEqualTo(30_000);
+    assertThat(guard.rotations()).isEqualTo(3);
+  }
+
+  @Test
+  void rotation() {
+    final NonceGuard guard = new NonceGuard(1000, 0.0001, true);
+    final SecretBox box = new SecretBox(new byte[32]);
+    final byte[] nonce = box.nonce();
+    guard.add(nonce);
+    for (int i = 0; i < 1499; i++) {
+      guard.add(box.nonce());
+    }
+    assertThat(guard.add(nonce)).isFalse();
+    for (int i = 0; i < 1500; i++) {
+      guard.add(box.nonce());
+    }
+    assertThat(guard.add(nonce)).isTrue();
+    assertThat(guard.rotations()).isEqualTo(3);
+  }
+
+  @Test
+  void rejectingBox() {
+    final SecretBox box = new SecretBox(new byte[32], new NonceGuard(1000, 0.001, true));
+    final byte[] nonce = box.nonce();
+    box.seal(nonce, new byte[10]);
+    assertThatThrownBy(() -> box.seal(nonce, new byte[10]))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void flaggingBox() {
+    final NonceGuard guard = new NonceGuard(1000, 0.001, false);
+    final SecretBox box = new SecretBox(new byte[32], guard);
+    final byte[] nonce = box.nonce();
+    box.seal(nonce, new byte[10]);
+    box.seal(nonce, new byte[10]);
+    assertThat(guard.suspectedReuses()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.xsalsa20poly1305.PrecomputedSealer;
+import com.codahale.xsalsa20poly1305.SimpleBox;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class PrecomputedSealerTest implements WithQuickTheories {
+
+  @Test
+  void roundTrip() {
+    qt().forAll(byteArrays(32, 32), byteArrays(0, 2048))
+        .check(
+            (key, message) -> {
+              final SimpleBox box = new SimpleBox(key);
+              try (PrecomputedSealer sealer = new PrecomputedSealer(key, 4, 1024)) {
+                final byte[] ciphertext = sealer.seal(message);
+                return Arrays.equals(message, box.open(ciphertext).orElse(null));
+              }
+            });
+  }
+
+  @Test
+  void usesPrecomputedSlots() throws InterruptedException {
+    final byte[] key = new byte[32];
+    final SimpleBox box = new SimpleBox(key);
+    try (PrecomputedSealer sealer = new PrecomputedSealer(key, 8, 256)) {
+      while (sealer.occupancy() < 8) {
+        Thread.sleep(1);
+      }
+
+      final Set<String> nonces = new HashSet<>();
+      for (int i = 0; i < 8; i++) {
+        final byte[] message = new byte[i * 32];
+        Arrays.fill(message, (byte) i);
+        final byte[] ciphertext = sealer.seal(message);
+        assertThat(box.open(ciphertext)).contains(message);
+        nonces.add(Arrays.toString(Arrays.copyOf(ciphertext, 24)));
+      }
+      assertThat(nonces).hasSize(8);
+      assertThat(sealer.hits()).isEqualTo(8);
+      assertThat(sealer.fallbacks()).isZero();
+
+      final byte[] large = new byte[257];
+      assertThat(box.open(sealer.seal(large))).contains(large);
+      assertThat(sealer.fallbacks()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void concurrentClose() throws Exception {
+    final byte[] key = new byte[32];
+    key[0] = 1;
+    final SimpleBox box = new SimpleBox(key);
+    for (int i = 0; i < 20; i++) {
+      final PrecomputedSealer sealer = new PrecomputedSealer(key, 2, 64);
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        final List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+          results.add(
+              executor.submit(
+                  () -> {
+                    final byte[] message = new byte[100];
+                    while (true) {
+                      final byte[] ciphertext;
+                      try {
+                        ciphertext = sealer.seal(message);
+                      } catch (IllegalStateException e) {
+                        return true;
+                      }
+                      // a ciphertext sealed with a wiped key won't open with the real key
+                      if (!box.open(ciphertext).isPresent()) {
+                        return false;
+                      }
+                    }
+                  }));
+        }
+        Thread.sleep(1);
+        sealer.close();
+        for (Future<Boolean> result : results) {
+          assertThat(result.get()).isTrue();
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  void oversizedMessages() {
+    assertThatThrownBy(() -> new PrecomputedSealer(new byte[32], 1, Integer.MAX_VALUE - 31))
+        .isInstanceOf(IllegalArgumentException.class);
+    try (PrecomputedSealer sealer = new PrecomputedSealer(new byte[32], 1, 0)) {
+      assertThat(sealer.seal(new byte[1])).hasSize(41);
+      assertThat(sealer.fallbacks()).isEqualTo(1);
+      assertThat(sealer.fillerFailures()).isZero();
+    }
+  }
+
+  @Test
+  void closed() {
+    final PrecomputedSealer sealer = new PrecomputedSealer(new byte[32], 4, 128);
+    sealer.close();
+    assertThat(sealer.occupancy()).isZero();
+    assertThatThrownBy(() -> sealer.seal(new byte[10])).isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2017 Coda Hale (coda.hale@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.codahale.xsalsa20poly1305.tests;
+
+import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.xsalsa20poly1305.ReplayWindow;
+import com.codahale.xsalsa20poly1305.SecretBox;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+class ReplayWindowTest implements WithQuickTheories {
+
+  @Test
+  void rejectsDuplicates() {
+    qt().forAll(longs().between(0, Long.MAX_VALUE))
+        .check(
+            counter -> {
+              final ReplayWindow window = new ReplayWindow(64);
+              return !window.isReplay(counter)
+                  && window.accept(counter)
+                  && window.isReplay(counter)
+                  && !window.accept(counter);
+            });
+  }
+
+  @Test
+  void outOfOrder() {
+    final ReplayWindow window = new ReplayWindow(128);
+    assertThat(window.accept(200)).isTrue();
+    assertThat(window.accept(100)).isTrue();
+    assertThat(window.accept(73)).isTrue();
+    assertThat(window.accept(72)).isFalse();
+    assertThat(window.accept(100)).isFalse();
+    assertThat(window.accept(300)).isTrue();
+    assertThat(window.accept(200)).isFalse();
+    assertThat(window.accept(201)).isTrue();
+    assertThat(window.accept(172)).isFalse();
+    assertThat(window.accept(173)).isTrue();
+    assertThat(window.highest()).isEqualTo(300);
+  }
+
+  @Test
+  void slidesAcrossWords() {
+    qt().forAll(integers().between(1, 300))
+        .check(
+            step -> {
+              final ReplayWindow window = new ReplayWindow(256);
+              for (long i = 0; i < 2000; i += step) {
+                if (!window.accept(i)) {
+                  return false;
+                }
+              }
+              for (long i = 0; i < 2000; i++) {
+                final boolean expected = (i % step == 0) || window.highest() - i >= 256;
+                if (i <= window.highest() && window.isReplay(i) != expected) {
+                  return false;
+                }
+              }
+              return true;
+            });
+  }
+
+  @Test
+  void concurrentAccepts() {
+    final ReplayWindow window = new ReplayWindow(1024);
+    final AtomicInteger accepted = new AtomicInteger();
+    IntStream.range(0, 8)
+        .parallel()
+        .forEach(
+            t -> {
+              for (int i = 0; i < 1000; i++) {
+                if (window.accept(i)) {
+                  accepted.incrementAndGet();
+                }
+              }
+            });
+    assertThat(accepted.get()).isEqualTo(1000);
+  }
+
+  @Test
+  void concurrentSlidingAccepts() {
+    final ReplayWindow window = new ReplayWindow(64);
+    final AtomicIntegerArray accepted = new AtomicIntegerArray(100_000);
+    IntStream.range(0, 8)
+        .parallel()
+        .forEach(
+            t -> {
+              for (int i = 0; i < accepted.length(); i++) {
+                if (window.accept(i)) {
+                  accepted.incrementAndGet(i);
+                }
+              }
+            });
+    for (int i = 0; i < accepted.length(); i++) {
+      assertThat(accepted.get(i)).isLessThanOrEqualTo(1);
+    }
+    assertThat(window.highest()).isEqualTo(accepted.length() - 1);
+  }
+
+  @Test
+  void openRejectsReplays() {
+    qt().forAll(byteArrays(32, 32), byteArrays(16, 16), byteArrays(1, 4096))
+        .check(
+            (key, prefix, message) -> {
+              final SecretBox box = new SecretBox(key);
+              final ReplayWindow window = new ReplayWindow(64);
+              final byte[] nonce = ByteBuffer.allocate(24).put(prefix).putLong(22).array();
+              final byte[] ciphertext = box.seal(nonce, message);
+              return box.open(nonce, ciphertext, window).isPresent()
+                  && !box.open(nonce, ciphertext, window).isPresent();
+            });
+  }
+
+  @Test
+  void forgeriesAreNotRecorded() {
+    final SecretBox box = new SecretBox(new byte[32]);
+    final ReplayWindow window = new ReplayWindow(64);
+    final byte[] nonce = ByteBuffer.allocate(24).putLong(16, 1).array();
+    final byte[] ciphertext = box.seal(nonce, new byte[100]);
+    ciphertext[20] ^= 1;
+    assertThat(box.open(nonce, ciphertext, window)).isEmpty();
+    ciphertext[20] ^= 1;
+    assertThat(box.open(nonce, ciphertext, window)).isPresent();
+  }
+}
@@ -17,10 +17,13 @@ package com.codahale.xsalsa20poly1305.tests;
 
 import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
 import static com.codahale.xsalsa20poly1305.tests.Generators.privateKeys;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.codahale.xsalsa20poly1305.Keys;
+import com.codahale.xsalsa20poly1305.LazyPlaintext;
 import com.codahale.xsalsa20poly1305.SecretBox;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
@@ -113,6 +116,171 @@ class SecretBoxTest implements WithQuickTheories {
             });
   }
 
+  @Test
+  void associatedDataRoundTrip() {
+    qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(0, 4096), byteArrays(0, 100))
+        .check(
+            (key, nonce, message, data) -> {
+              final SecretBox box = new SecretBox(key);
+              final byte[] ciphertext = box.sealWithAssociatedData(nonce, message, data);
+              return ciphertext.length == message.length + 16
+                  && box.openWithAssociatedData(nonce, ciphertext, data)
+                      .map(a -> Arrays.equals(message, a))
+                      .orElse(false);
+            });
+  }
+
+  @Test
+  void badAssociatedData() {
+    qt().forAll(
+            byteArrays(32, 32), byteArrays(0, 4096), byteArrays(1, 100), integers().allPositive())
+        .check(
+            (key, message, data, v) -> {
+              final SecretBox box = new SecretBox(key);
+              final byte[] nonce = box.nonce();
+              final byte[] ciphertext = box.sealWithAssociatedData(nonce, message, data);
+              // flip a single random bit of associated data
+              data[v % data.length] ^= (byte) (1 << (v % 8));
+              return !box.openWithAssociatedData(nonce, ciphertext, data).isPresent();
+            });
+  }
+
+  @Test
+  void associatedDataIsNotSecretBox() {
+    qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(0, 4096))
+        .check(
+            (key, nonce, message) -> {
+              final SecretBox box = new SecretBox(key);
+              final byte[] aead = box.sealWithAssociatedData(nonce, message, new byte[0]);
+              final byte[] secretBox = box.seal(nonce, message);
+              return !box.open(nonce, aead).isPresent()
+                  && !box.openWithAssociatedData(nonce, secretBox, new byte[0]).isPresent();
+            });
+  }
+
+  @Test
+  void gatheringSeal() {
+    qt().forAll(
+            byteArrays(32, 32),
+            byteArrays(24, 24),
+            lists().of(byteArrays(0, 1024)).ofSizeBetween(0, 5),
+            booleans().all())
+        .check(
+            (key, nonce, parts, direct) -> {
+              final SecretBox box = new SecretBox(key);
+              final ByteBuffer message =
+                  ByteBuffer.allocate(parts.stream().mapToInt(p -> p.length).sum());
+              parts.forEach(message::put);
+              final ByteBuffer[] srcs =
+                  parts.stream().map(p -> buffer(p, direct)).toArray(ByteBuffer[]::new);
+              final ByteBuffer dst =
+                  direct
+                      ? ByteBuffer.allocateDirect(message.capacity() + 20)
+                      : ByteBuffer.allocate(message.capacity() + 20);
+              dst.position(2);
+              box.seal(nonce, srcs, dst);
+              final byte[] ciphertext = new byte[message.capacity() + 16];
+              dst.flip().position(2);
+              dst.get(ciphertext);
+              return Arrays.equals(ciphertext, box.seal(nonce, message.array()))
+                  && Arrays.stream(srcs).noneMatch(ByteBuffer::hasRemaining);
+            });
+  }
+
+  @Test
+  void scatteringOpen() {
+    qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(0, 4096), booleans().all())
+        .check(
+            (key, nonce, message, direct) -> {
+              final SecretBox box = new SecretBox(key);
+              final ByteBuffer src = buffer(box.seal(nonce, message), direct);
+              final ByteBuffer[] dsts = new ByteBuffer[3];
+              final int split = message.length / 3;
+              dsts[0] = direct ? ByteBuffer.allocateDirect(split) : ByteBuffer.allocate(split);
+              dsts[1] = ByteBuffer.allocate(split);
+              dsts[2] = ByteBuffer.allocate(message.length - split * 2 + 10);
+              if (!box.open(nonce, src, dsts) || src.hasRemaining()) {
+                return false;
+              }
+              final ByteBuffer plaintext = ByteBuffer.allocate(message.length);
+              for (ByteBuffer dst : dsts) {
+                dst.flip();
+                plaintext.put(dst);
+              }
+              return Arrays.equals(message, plaintext.array())
+                  && dsts[2].capacity() - dsts[2].limit() == 10;
+            });
+  }
+
+  @Test
+  void badScatteringOpen() {
+    final SecretBox box = new SecretBox(new byte[32]);
+    final byte[] nonce = box.nonce();
+    final byte[] ciphertext = box.seal(nonce, new byte[100]);
+    ciphertext[40] ^= 1;
+    final ByteBuffer src = ByteBuffer.wrap(ciphertext);
+    final ByteBuffer dst = ByteBuffer.allocate(100);
+    assertThat(box.open(nonce, src, new ByteBuffer[] {dst})).isFalse();
+    assertThat(src.position()).isZero();
+    assertThat(dst.position()).isZero();
+    assertThatThrownBy(() -> box.open(nonce, src, new ByteBuffer[] {ByteBuffer.allocate(99)}))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () ->
+                box.seal(
+                    nonce, new ByteBuffer[] {ByteBuffer.allocate(10)}, ByteBuffer.allocate(25)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void verify() {
+    qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(1, 4096))
+        .check(
+            (key, nonce, message) -> {
+              final SecretBox box = new SecretBox(key);
+              final byte[] ciphertext = box.seal(nonce, message);
+              if (!box.verify(nonce, ciphertext)) {
+                return false;
+              }
+              ciphertext[ciphertext.length - 1] ^= 1;
+              return !box.verify(nonce, ciphertext);
+            });
+  }
+
+  @Test
+  void lazyOpen() {
+    qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(1, 4096), integers().all())
+        .check(
+            (key, nonce, message, i) -> {
+              final SecretBox box = new SecretBox(key);
+              final LazyPlaintext plaintext = box.openLazily(nonce, box.seal(nonce, message)).get();
+              final int offset = Math.floorMod(i, message.length);
+              final int len = Math.floorMod(i >>> 12, message.length - offset + 1);
+              return plaintext.length() == message.length
+                  && Arrays.equals(message, plaintext.toByteArray())
+                  && Arrays.equals(
+                      Arrays.copyOfRange(message, offset, offset + len),
+                      plaintext.read(offset, len));
+            });
+  }
+
+  @Test
+  void badLazyOpen() {
+    final SecretBox box = new SecretBox(new byte[32]);
+    final byte[] nonce = box.nonce();
+    final byte[] ciphertext = box.seal(nonce, new byte[100]);
+    final LazyPlaintext plaintext = box.openLazily(nonce, ciphertext).get();
+    assertThatThrownBy(() -> plaintext.read(90, 11)).isInstanceOf(IndexOutOfBoundsException.class);
+    assertThatThrownBy(() -> plaintext.read(-1, 1)).isInstanceOf(IndexOutOfBoundsException.class);
+    assertThatThrownBy(() -> plaintext.read(0, -1)).isInstanceOf(IndexOutOfBoundsException.class);
+    assertThatThrownBy(() -> plaintext.read(0, new byte[10], 5, 6))
+        .isInstanceOf(IndexOutOfBoundsException.class);
+
+    ciphertext[40] ^= 1;
+    assertThat(box.openLazily(nonce, ciphertext)).isEmpty();
+    assertThat(plaintext.toByteArray()).isEqualTo(new byte[100]);
+  }
+
   @Test
   void randomNonce() {
     final SecretBox box = new SecretBox(new byte[32]);
@@ -134,6 +302,23 @@ class SecretBoxTest implements WithQuickTheories {
             });
   }
 
+  @Test
+  void parallelNonce() {
+    qt().forAll(byteArrays(32, 32), byteArrays(1, 4096))
+        .check(
+            (key, message) -> {
+              final SecretBox box = new SecretBox(key);
+              return box.parallelNonce(message).length == 24;
+            });
+  }
+
+  @Test
+  void largeParallelNonce() {
+    final SecretBox box = new SecretBox(new byte[32]);
+    final byte[] message = new byte[1024 * 1024];
+    assertThat(box.parallelNonce(message)).hasSize(24).isNotEqualTo(box.parallelNonce(message));
+  }
+
   @Test
   void fromUsToLibSodium() {
     qt().forAll(byteArrays(32, 32), byteArrays(24, 24), byteArrays(1, 4096))
@@ -188,6 +373,15 @@ class SecretBoxTest implements WithQuickTheories {
             });
   }
 
+  private static ByteBuffer buffer(byte[] b, boolean direct) {
+    if (!direct) {
+      return ByteBuffer.wrap(b);
+    }
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(b.length);
+    buffer.put(b).flip();
+    return buffer;
+  }
+
   private <T> Optional<T> tryTo(Supplier<T> f) {
     try {
       return Optional.ofNullable(f.get());
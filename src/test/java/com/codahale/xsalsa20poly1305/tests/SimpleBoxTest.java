@@ -17,6 +17,7 @@ package com.codahale.xsalsa20poly1305.tests;
 
 import static com.codahale.xsalsa20poly1305.tests.Generators.byteArrays;
 import static com.codahale.xsalsa20poly1305.tests.Generators.privateKeys;
+import static org.assertj.core.api.Assertions.assertThat;
 
 import com.codahale.xsalsa20poly1305.Keys;
 import com.codahale.xsalsa20poly1305.SimpleBox;
@@ -35,6 +36,26 @@ class SimpleBoxTest implements WithQuickTheories {
             });
   }
 
+  @Test
+  void parallelRoundTrip() {
+    qt().forAll(byteArrays(32, 32), byteArrays(1, 4096))
+        .check(
+            (key, message) -> {
+              final SimpleBox box = new SimpleBox(key);
+              return box.open(box.sealParallel(message))
+                  .map(a -> Arrays.equals(message, a))
+                  .orElse(false);
+            });
+  }
+
+  @Test
+  void largeParallelRoundTrip() {
+    final SimpleBox box = new SimpleBox(new byte[32]);
+    final byte[] message = new byte[1024 * 1024];
+    Arrays.fill(message, (byte) 0xca);
+    assertThat(box.open(box.sealParallel(message))).contains(message);
+  }
+
   @Test
   void pkRoundTrip() {
     qt().forAll(privateKeys(), privateKeys(), byteArrays(1, 4096))